@@ -0,0 +1,87 @@
+package Bench;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import Util.SchemaMigrations;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Seeds the database used by the benchmarks. Benchmarks fork their JVMs with -Dsocialmedia.db.url pointing at
+ * BENCH_DB_URL so the development database in ./h2 is never touched.
+ */
+public class BenchDatabase {
+    public static final String BENCH_DB = "jdbc:h2:./target/bench-h2/db;";
+    public static final String BENCH_DB_URL = "-Dsocialmedia.db.url=" + BENCH_DB;
+    public static final long FIRST_EPOCH = 1669947792L;
+    private static final int CHUNK = 1000;
+
+    private BenchDatabase() {
+    }
+
+    /**
+     * Drop and recreate the tables, bring them up to date with the schema migrations, then insert accounts
+     * user1..userN (password "password") and messages spread randomly across them, one second apart starting at
+     * FIRST_EPOCH.
+     * @param accounts number of accounts
+     * @param messages number of messages
+     */
+    public static void seed(int accounts, int messages) {
+        seed(accounts, messages, true);
+    }
+
+    /**
+     * Like seed(accounts, messages), optionally leaving the schema as SocialMedia.sql creates it, without the indexes
+     * added by later migrations.
+     * @param migrate whether to run the schema migrations
+     */
+    public static void seed(int accounts, int messages, boolean migrate) {
+        ConnectionUtil.resetTestDatabase();
+        if (migrate)
+            SchemaMigrations.migrate();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            PreparedStatement preparedStatement = connection.prepareStatement(
+                    "INSERT INTO account (username, password) VALUES (?, ?);");
+            // the reset script already created testuser1 as account 1
+            for (int i = 2; i <= accounts; i++) {
+                preparedStatement.setString(1, "user" + i);
+                preparedStatement.setString(2, "password");
+                preparedStatement.addBatch();
+                if (i % CHUNK == 0)
+                    preparedStatement.executeBatch();
+            }
+            preparedStatement.executeBatch();
+            connection.commit();
+        }
+        catch (SQLException e) {
+            throw new IllegalStateException("Could not seed accounts", e);
+        }
+
+        MessageDAO messageDAO = new MessageDAO();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Message> chunk = new ArrayList<>(CHUNK);
+        // the reset script already created message 1
+        for (int i = 2; i <= messages; i++) {
+            chunk.add(new Message(1 + random.nextInt(accounts), "benchmark message " + i, FIRST_EPOCH + i));
+            if (chunk.size() == CHUNK || i == messages) {
+                if (messageDAO.newMessages(chunk) == null)
+                    throw new IllegalStateException("Could not seed messages");
+                chunk.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of accounts seeded for a table of the given number of messages
+     */
+    public static int accountsFor(int messages) {
+        return Math.max(10, messages / 100);
+    }
+}
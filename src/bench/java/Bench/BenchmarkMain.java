@@ -0,0 +1,28 @@
+package Bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks once per thread count in -Dbench.threads (default 1,4,16), always with the GC profiler so
+ * allocation rates are reported next to latency. Any other arguments are passed to JMH, e.g. a benchmark regex,
+ * "-p tableSize=1000" or "-rf json".
+ *
+ *   mvn -Pbench test-compile exec:exec -Dbench.args="DaoBenchmark -p tableSize=1000"
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        for (String threads : System.getProperty("bench.threads", "1,4,16").split(",")) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .addProfiler(GCProfiler.class)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package Bench;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Every MessageDAO and AccountDAO method against a seeded H2 database. Write benchmarks grow the table as they run,
+ * which is what a production table does too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchDatabase.BENCH_DB_URL)
+public class DaoBenchmark {
+    @Param({"1000", "100000"})
+    public int tableSize;
+
+    private MessageDAO messageDAO;
+    private AccountDAO accountDAO;
+    private int accounts;
+    private final AtomicInteger usernames = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void seed() {
+        accounts = BenchDatabase.accountsFor(tableSize);
+        BenchDatabase.seed(accounts, tableSize);
+        messageDAO = new MessageDAO();
+        accountDAO = new AccountDAO();
+    }
+
+    private int randomMessageId() {
+        return 1 + ThreadLocalRandom.current().nextInt(tableSize);
+    }
+
+    private int randomAccountId() {
+        return 1 + ThreadLocalRandom.current().nextInt(accounts);
+    }
+
+    private Message newRandomMessage() {
+        return new Message(randomAccountId(), "benchmark write", BenchDatabase.FIRST_EPOCH);
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageDAO.getMessageById(randomMessageId());
+    }
+
+    @Benchmark
+    public List<Message> getMessagesPage() {
+        return messageDAO.getMessagesPage(null, randomMessageId(), Integer.MAX_VALUE, 50, false);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesPageByUser() {
+        return messageDAO.getMessagesPage(randomAccountId(), Integer.MIN_VALUE, Integer.MAX_VALUE, 50, true);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesByUserId() {
+        return messageDAO.getAllMessagesByUserId(randomAccountId());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Message> getAllMessages() {
+        return messageDAO.getAllMessages();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void streamMessages(Blackhole blackhole) throws IOException {
+        messageDAO.streamMessages(null, blackhole::consume);
+    }
+
+    @Benchmark
+    public Message newMessage() {
+        return messageDAO.newMessage(newRandomMessage());
+    }
+
+    @Benchmark
+    public List<Message> newMessagesBatchOf100() {
+        List<Message> batch = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++)
+            batch.add(newRandomMessage());
+        return messageDAO.newMessages(batch);
+    }
+
+    @Benchmark
+    public Message updateMessageById() {
+        return messageDAO.updateMessageById(randomMessageId(), "updated by benchmark");
+    }
+
+    /**
+     * Deletes a message it has just inserted, so the seeded rows stay in place for the other benchmarks.
+     */
+    @Benchmark
+    public Message newThenDeleteMessage() {
+        Message message = messageDAO.newMessage(newRandomMessage());
+        return messageDAO.deleteMessageById(message.getMessage_id());
+    }
+
+    @Benchmark
+    public Account getAccountById() {
+        return accountDAO.getAccountById(randomAccountId());
+    }
+
+    @Benchmark
+    public Account getAccountByUsername() {
+        int id = randomAccountId();
+        return accountDAO.getAccountByUsername(id == 1 ? "testuser1" : "user" + id);
+    }
+
+    @Benchmark
+    public boolean accountExists() {
+        return accountDAO.accountExists(randomAccountId());
+    }
+
+    @Benchmark
+    public Set<Integer> existingAccountIds() {
+        List<Integer> ids = new ArrayList<>(20);
+        for (int i = 0; i < 20; i++)
+            ids.add(randomAccountId());
+        return accountDAO.existingAccountIds(ids);
+    }
+
+    @Benchmark
+    public Account addAccount() {
+        return accountDAO.addAccount(new Account("bench" + tableSize + "-" + usernames.incrementAndGet(), "password"));
+    }
+}
@@ -0,0 +1,112 @@
+package Bench;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end handler latency: a SocialMediaController is started on an ephemeral port and driven over loopback HTTP,
+ * so the numbers include Jetty, routing, JSON and the service and DAO layers underneath.
+ * Rate limits are turned off, since every request comes from the same IP.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {BenchDatabase.BENCH_DB_URL, "-Dsocialmedia.rateLimit.enabled=false"})
+public class HandlerBenchmark {
+    @Param({"1000", "100000"})
+    public int tableSize;
+
+    private Javalin app;
+    private HttpClient client;
+    private String baseUrl;
+    private int accounts;
+
+    @Setup(Level.Trial)
+    public void start() {
+        accounts = BenchDatabase.accountsFor(tableSize);
+        BenchDatabase.seed(accounts, tableSize);
+        app = new SocialMediaController().startAPI().start(0);
+        baseUrl = "http://localhost:" + app.port();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        app.stop();
+    }
+
+    private int randomMessageId() {
+        return 1 + ThreadLocalRandom.current().nextInt(tableSize);
+    }
+
+    private int randomAccountId() {
+        return 1 + ThreadLocalRandom.current().nextInt(accounts);
+    }
+
+    private String send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 500)
+            throw new IllegalStateException(request + " returned " + response.statusCode());
+        return response.body();
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build());
+    }
+
+    private String post(String path, String body) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    @Benchmark
+    public String getMessageById() throws IOException, InterruptedException {
+        return get("/messages/" + randomMessageId());
+    }
+
+    @Benchmark
+    public String getMessagesPage() throws IOException, InterruptedException {
+        return get("/messages?limit=50&after=" + randomMessageId());
+    }
+
+    @Benchmark
+    public String getMessagesByAccount() throws IOException, InterruptedException {
+        return get("/accounts/" + randomAccountId() + "/messages");
+    }
+
+    @Benchmark
+    public String postMessage() throws IOException, InterruptedException {
+        return post("/messages", "{\"posted_by\":" + randomAccountId() +
+                ", \"message_text\": \"benchmark write\", \"time_posted_epoch\": " + BenchDatabase.FIRST_EPOCH + "}");
+    }
+
+    @Benchmark
+    public String login() throws IOException, InterruptedException {
+        return post("/login", "{\"username\": \"testuser1\", \"password\": \"password\"}");
+    }
+}
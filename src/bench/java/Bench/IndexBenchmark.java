@@ -0,0 +1,121 @@
+package Bench;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Util.ConnectionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-account and time-range queries with and without the secondary indexes added by the V2 to V4 schema
+ * migrations, as the message table grows. Each trial prints the query plans H2 chooses before it is measured, so the
+ * output shows which index, if any, each query uses next to its latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchDatabase.BENCH_DB_URL)
+public class IndexBenchmark {
+    /**
+     * The query MessageDAO.getMessagesByTime runs for a first page, explained for all accounts and for one
+     */
+    private static final String TIME_RANGE_SQL =
+            "SELECT * FROM message WHERE time_posted_epoch >= ? AND time_posted_epoch < ? " +
+            "AND (time_posted_epoch > ? OR message_id > ?) ORDER BY time_posted_epoch, message_id LIMIT 50;";
+    private static final String TIME_RANGE_BY_USER_SQL =
+            "SELECT * FROM message WHERE posted_by = ? AND time_posted_epoch >= ? AND time_posted_epoch < ? " +
+            "AND (time_posted_epoch > ? OR message_id > ?) ORDER BY posted_by, time_posted_epoch, message_id LIMIT 50;";
+    private static final String LATEST_BY_USER_SQL =
+            "SELECT * FROM message WHERE posted_by = ? AND message_id > ? AND message_id < ? " +
+            "ORDER BY message_id DESC LIMIT ?;";
+    private static final String ALL_BY_USER_SQL = "SELECT * FROM message WHERE posted_by = ?;";
+
+    @Param({"10000", "100000", "1000000"})
+    public int tableSize;
+
+    @Param({"false", "true"})
+    public boolean migrated;
+
+    private MessageDAO messageDAO;
+    private int accounts;
+
+    @Setup(Level.Trial)
+    public void seed() throws SQLException {
+        accounts = BenchDatabase.accountsFor(tableSize);
+        BenchDatabase.seed(accounts, tableSize, migrated);
+        messageDAO = new MessageDAO();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            explain(connection, TIME_RANGE_SQL, BenchDatabase.FIRST_EPOCH, BenchDatabase.FIRST_EPOCH + 3600,
+                    BenchDatabase.FIRST_EPOCH, Integer.MIN_VALUE);
+            explain(connection, TIME_RANGE_BY_USER_SQL, 1, BenchDatabase.FIRST_EPOCH,
+                    BenchDatabase.FIRST_EPOCH + 86400, BenchDatabase.FIRST_EPOCH, Integer.MIN_VALUE);
+            explain(connection, LATEST_BY_USER_SQL, 1, Integer.MIN_VALUE, Integer.MAX_VALUE, 20);
+            explain(connection, ALL_BY_USER_SQL, 1);
+        }
+    }
+
+    private void explain(Connection connection, String sql, Object... params) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < params.length; i++)
+                preparedStatement.setObject(i + 1, params[i]);
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next())
+                System.out.println("migrated=" + migrated + " tableSize=" + tableSize + "\n" + rs.getString(1));
+        }
+    }
+
+    private int randomAccountId() {
+        return 1 + ThreadLocalRandom.current().nextInt(accounts);
+    }
+
+    /**
+     * The newest page of one account's messages, as served by GET /accounts/{account_id}/messages?before=...
+     */
+    @Benchmark
+    public List<Message> latestPageByUser() {
+        return messageDAO.getMessagesPage(randomAccountId(), Integer.MIN_VALUE, Integer.MAX_VALUE, 20, true);
+    }
+
+    @Benchmark
+    public List<Message> allMessagesByUser() {
+        return messageDAO.getAllMessagesByUserId(randomAccountId());
+    }
+
+    /**
+     * The first page of one hour of messages, oldest first.
+     */
+    @Benchmark
+    public List<Message> timeRange() {
+        long from = BenchDatabase.FIRST_EPOCH + ThreadLocalRandom.current().nextInt(tableSize);
+        return messageDAO.getMessagesByTime(null, from, Integer.MIN_VALUE, from + 3600, 50);
+    }
+
+    /**
+     * The first page of one day of one account's messages, oldest first.
+     */
+    @Benchmark
+    public List<Message> timeRangeByUser() {
+        long from = BenchDatabase.FIRST_EPOCH + ThreadLocalRandom.current().nextInt(tableSize);
+        return messageDAO.getMessagesByTime(randomAccountId(), from, Integer.MIN_VALUE, from + 86400, 50);
+    }
+}
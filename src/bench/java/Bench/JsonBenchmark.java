@@ -0,0 +1,90 @@
+package Bench;
+
+import Controller.JsonCodec;
+import Model.Message;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request decoding and response encoding as the handlers do it. The "perRequestMapper" benchmarks reproduce the old
+ * handlers, which built a new ObjectMapper per request and went through Strings; run with -prof gc (BenchmarkMain
+ * always does) to compare allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+    private static final byte[] MESSAGE_BODY = ("{\"posted_by\":1, \"message_text\": \"hello message\", " +
+            "\"time_posted_epoch\": 1669947792}").getBytes(StandardCharsets.UTF_8);
+
+    @Param({"10", "100", "1000"})
+    public int listSize;
+
+    private final JsonCodec codec = new JsonCodec();
+    private List<Message> messages;
+    private byte[] messagesBody;
+
+    @Setup
+    public void createMessages() throws IOException {
+        messages = new ArrayList<>(listSize);
+        for (int i = 1; i <= listSize; i++)
+            messages.add(new Message(i, 1 + i % 10, "benchmark message " + i, BenchDatabase.FIRST_EPOCH + i));
+        messagesBody = codec.writeMessages(messages);
+    }
+
+    @Benchmark
+    public byte[] postMessageCodec() throws IOException {
+        Message message = codec.readMessage(MESSAGE_BODY);
+        message.setMessage_id(2);
+        return codec.writeMessage(message);
+    }
+
+    @Benchmark
+    public byte[] postMessagePerRequestMapper() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Message message = mapper.readValue(new String(MESSAGE_BODY, StandardCharsets.UTF_8), Message.class);
+        message.setMessage_id(2);
+        return mapper.writeValueAsString(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writeMessagesCodec() throws IOException {
+        return codec.writeMessages(messages);
+    }
+
+    @Benchmark
+    public byte[] writeMessagesPerRequestMapper() throws IOException {
+        return new ObjectMapper().writeValueAsString(messages).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<Message> readMessagesCodec() throws IOException {
+        return codec.readMessages(messagesBody);
+    }
+
+    @Benchmark
+    public List<Message> readMessagesPerRequestMapper() throws IOException {
+        return new ObjectMapper().readValue(new String(messagesBody, StandardCharsets.UTF_8),
+                new TypeReference<List<Message>>(){});
+    }
+}
@@ -0,0 +1,275 @@
+package Bench;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load generator. It seeds the benchmark database, starts a SocialMediaController on an ephemeral port and
+ * drives a weighted mix of routes over HTTP, then prints throughput and p50/p99/p99.9 latency per route.
+ *
+ * Arguments are key=value pairs, all optional:
+ *   mix=get:80,post:15,login:5  route weights; routes are get, post, login, page, timeline, batch
+ *   mode=closed                 closed: each of "threads" workers sends its next request when the last one returns
+ *                               open: requests are issued at a fixed "rate" per second regardless of response times
+ *   threads=16                  closed-loop workers, and the cap on requests in flight in open-loop mode (x64)
+ *   rate=1000                   open-loop arrival rate in requests per second
+ *   duration=30                 measured seconds
+ *   warmup=5                    seconds of load before measurement starts
+ *   tableSize=10000             messages seeded before the run
+ *   threadMode=platform         platform or virtual request threads in the app (see socialmedia.virtualThreads), or
+ *                               both to run the same load against each in turn and compare them; both runs share
+ *                               one JVM, so give warmup enough seconds for the first run not to pay for JIT alone
+ *   rateLimit=false             whether the app's per-route rate limits apply; off by default, since all the load
+ *                               comes from one IP and a few accounts
+ *
+ * In open-loop mode latency is measured from the time a request was scheduled to be sent, not from when it was
+ * actually sent, so a server that falls behind shows up as queueing delay instead of being hidden by a stalled client.
+ */
+public class LoadGenerator {
+    private static final String[] ROUTES = {"get", "post", "login", "page", "timeline", "batch"};
+
+    private final Map<String, String> options;
+    private final int tableSize;
+    private final int accounts;
+    private final String[] mixRoutes;
+    private final int[] mixWeights;
+    private final int totalWeight;
+    private final Map<String, RouteStats> stats = new LinkedHashMap<>();
+    private HttpClient client;
+    private String baseUrl;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("socialmedia.db.url", BenchDatabase.BENCH_DB);
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        System.setProperty("socialmedia.rateLimit.enabled", options.getOrDefault("rateLimit", "false"));
+        new LoadGenerator(options).run();
+    }
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        tableSize = intOption("tableSize", 10000);
+        accounts = BenchDatabase.accountsFor(tableSize);
+
+        String[] entries = options.getOrDefault("mix", "get:80,post:15,login:5").split(",");
+        mixRoutes = new String[entries.length];
+        mixWeights = new int[entries.length];
+        int sum = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] parts = entries[i].trim().split(":");
+            if (parts.length != 2 || !List.of(ROUTES).contains(parts[0]))
+                throw new IllegalArgumentException("Bad mix entry " + entries[i] + ", routes are " + List.of(ROUTES));
+            mixRoutes[i] = parts[0];
+            sum += Integer.parseInt(parts[1]);
+            mixWeights[i] = sum;
+            stats.putIfAbsent(parts[0], new RouteStats());
+        }
+        totalWeight = sum;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    public void run() throws InterruptedException {
+        String threadMode = options.getOrDefault("threadMode", "platform");
+        if (threadMode.equals("both")) {
+            run(false);
+            run(true);
+        }
+        else {
+            run(threadMode.equals("virtual"));
+        }
+    }
+
+    private void run(boolean virtualThreads) throws InterruptedException {
+        boolean open = options.getOrDefault("mode", "closed").equals("open");
+        int threads = intOption("threads", 16);
+        int rate = intOption("rate", 1000);
+        long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup", 5));
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration", 30));
+
+        System.out.println("Seeding " + tableSize + " messages across " + accounts + " accounts");
+        BenchDatabase.seed(accounts, tableSize);
+        System.setProperty("socialmedia.virtualThreads", String.valueOf(virtualThreads));
+        Javalin app = new SocialMediaController().startAPI().start(0);
+        baseUrl = "http://localhost:" + app.port();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(executor).build();
+        for (RouteStats routeStats : stats.values())
+            routeStats.reset();
+        System.out.println((open ? "Open loop at " + rate + " req/s" : "Closed loop with " + threads + " workers") +
+                " against " + (virtualThreads ? "virtual" : "platform") + " request threads" +
+                ", warmup " + TimeUnit.NANOSECONDS.toSeconds(warmupNanos) + "s, measuring " +
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos) + "s");
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        try {
+            if (open)
+                runOpenLoop(rate, threads * 64, start, measureFrom, end);
+            else
+                runClosedLoop(threads, measureFrom, end);
+        } finally {
+            executor.shutdownNow();
+            app.stop();
+        }
+        report(durationNanos);
+    }
+
+    private void runClosedLoop(int threads, long measureFrom, long end) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    String route = pickRoute();
+                    boolean ok;
+                    try {
+                        ok = client.send(request(route), HttpResponse.BodyHandlers.discarding()).statusCode() < 500;
+                    } catch (Exception e) {
+                        ok = false;
+                    }
+                    if (now >= measureFrom)
+                        stats.get(route).record(System.nanoTime() - now, ok);
+                }
+            }, "load-worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+    }
+
+    private void runOpenLoop(int rate, int maxInFlight, long start, long measureFrom, long end)
+            throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        for (long intended = start; intended < end; intended += interval) {
+            long delay = intended - System.nanoTime();
+            if (delay > 0)
+                LockSupport.parkNanos(delay);
+            inFlight.acquire();
+            String route = pickRoute();
+            long scheduled = intended;
+            client.sendAsync(request(route), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        inFlight.release();
+                        if (scheduled >= measureFrom)
+                            stats.get(route).record(System.nanoTime() - scheduled,
+                                    failure == null && response.statusCode() < 500);
+                    });
+        }
+        inFlight.acquire(maxInFlight);
+    }
+
+    private String pickRoute() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < mixWeights.length; i++) {
+            if (r < mixWeights[i])
+                return mixRoutes[i];
+        }
+        return mixRoutes[mixRoutes.length - 1];
+    }
+
+    private HttpRequest request(String route) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int messageId = 1 + random.nextInt(tableSize);
+        int accountId = 1 + random.nextInt(accounts);
+        String newMessage = "{\"posted_by\":" + accountId + ", \"message_text\": \"load test\", " +
+                "\"time_posted_epoch\": " + BenchDatabase.FIRST_EPOCH + "}";
+        switch (route) {
+            case "get":
+                return get("/messages/" + messageId);
+            case "page":
+                return get("/messages?limit=50&after=" + messageId);
+            case "timeline":
+                return get("/accounts/" + accountId + "/messages");
+            case "post":
+                return post("/messages", newMessage);
+            case "batch":
+                return post("/messages/batch", "[" + String.join(",", Collections.nCopies(10, newMessage)) + "]");
+            default:
+                return post("/login", "{\"username\": \"testuser1\", \"password\": \"password\"}");
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).GET().build();
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private void report(long durationNanos) {
+        double seconds = durationNanos / 1e9;
+        Histogram total = new Histogram(3);
+        long totalErrors = 0;
+        System.out.printf("%n%-10s %10s %8s %10s %10s %10s %10s %10s%n",
+                "route", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<String, RouteStats> entry : stats.entrySet()) {
+            Histogram histogram = entry.getValue().recorder.getIntervalHistogram();
+            long errors = entry.getValue().errors.get();
+            total.add(histogram);
+            totalErrors += errors;
+            printRow(entry.getKey(), histogram, errors, seconds);
+        }
+        printRow("total", total, totalErrors, seconds);
+    }
+
+    private static void printRow(String route, Histogram histogram, long errors, double seconds) {
+        System.out.printf("%-10s %10d %8d %10.1f %10.3f %10.3f %10.3f %10.3f%n",
+                route, histogram.getTotalCount(), errors, histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMaxValue() / 1e6);
+    }
+
+    /**
+     * Latencies in nanoseconds for one route. Recorder is safe to record into from many threads at once.
+     */
+    private static class RouteStats {
+        final Recorder recorder = new Recorder(3);
+        final AtomicLong errors = new AtomicLong();
+
+        void reset() {
+            recorder.reset();
+            errors.set(0);
+        }
+
+        void record(long latencyNanos, boolean ok) {
+            recorder.recordValue(latencyNanos);
+            if (!ok)
+                errors.incrementAndGet();
+        }
+    }
+}
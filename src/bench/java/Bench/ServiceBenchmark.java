@@ -0,0 +1,128 @@
+package Bench;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Account;
+import Model.Message;
+import Model.Page;
+import Service.AccountService;
+import Service.MessageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation and read paths of MessageService and AccountService, wired the same way SocialMediaController wires them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = BenchDatabase.BENCH_DB_URL)
+public class ServiceBenchmark {
+    private static final String LONG_TEXT = "a".repeat(256);
+
+    @Param({"1000", "100000"})
+    public int tableSize;
+
+    private MessageService messageService;
+    private AccountService accountService;
+    private int accounts;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        accounts = BenchDatabase.accountsFor(tableSize);
+        BenchDatabase.seed(accounts, tableSize);
+        AccountDAO accountDAO = new AccountDAO();
+        accountService = new AccountService(accountDAO);
+        messageService = new MessageService(new MessageDAO(), accountDAO);
+    }
+
+    private int randomMessageId() {
+        return 1 + ThreadLocalRandom.current().nextInt(tableSize);
+    }
+
+    private int randomAccountId() {
+        return 1 + ThreadLocalRandom.current().nextInt(accounts);
+    }
+
+    @Benchmark
+    public Message createMessageBlankText() {
+        return messageService.createNewMessage(new Message(randomAccountId(), " ", BenchDatabase.FIRST_EPOCH));
+    }
+
+    @Benchmark
+    public Message createMessageTextTooLong() {
+        return messageService.createNewMessage(new Message(randomAccountId(), LONG_TEXT, BenchDatabase.FIRST_EPOCH));
+    }
+
+    @Benchmark
+    public Message createMessageUnknownPoster() {
+        return messageService.createNewMessage(new Message(accounts + 1, "hello", BenchDatabase.FIRST_EPOCH));
+    }
+
+    @Benchmark
+    public Message createMessageValid() {
+        return messageService.createNewMessage(new Message(randomAccountId(), "hello", BenchDatabase.FIRST_EPOCH));
+    }
+
+    @Benchmark
+    public Message updateMessageBlankText() {
+        return messageService.updateMessageById(randomMessageId(), "");
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return messageService.getMessageById(randomMessageId());
+    }
+
+    @Benchmark
+    public Page<Message> getMessagesPageByUserId() {
+        return messageService.getMessagesPageByUserId(randomAccountId(), null, null, 20);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessagesByUserId() {
+        return messageService.getAllMessagesByUserId(randomAccountId());
+    }
+
+    @Benchmark
+    public Account registerExistingUsername() {
+        return accountService.registerNewAccount(new Account("testuser1", "password"));
+    }
+
+    @Benchmark
+    public Account registerShortPassword() {
+        return accountService.registerNewAccount(new Account("newuser", "pw"));
+    }
+
+    @Benchmark
+    public Account loginValid() {
+        int id = randomAccountId();
+        return accountService.verifyLogin(new Account(id == 1 ? "testuser1" : "user" + id, "password"));
+    }
+
+    @Benchmark
+    public Account loginWrongPassword() {
+        return accountService.verifyLogin(new Account("testuser1", "wrong"));
+    }
+
+    @Benchmark
+    public Account loginUnknownUser() {
+        return accountService.verifyLogin(new Account("nobody", "password"));
+    }
+}
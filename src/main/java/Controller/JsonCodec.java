@@ -0,0 +1,136 @@
+package Controller;
+
+import Model.Account;
+import Model.Message;
+import Model.MessageBatchResult;
+import io.javalin.json.JsonMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The JSON codec shared by every handler in SocialMediaController.
+ *
+ * One ObjectMapper is built up front and the readers and writers for the model types are resolved once, so their
+ * serializers are cached instead of being rebuilt on every request. Responses are encoded straight to bytes. The codec
+ * is also registered as Javalin's JsonMapper so ctx.json() and ctx.bodyAsClass() use the same configuration.
+ */
+public class JsonCodec implements JsonMapper {
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    private final ObjectReader messageReader = mapper.readerFor(Message.class);
+    private final ObjectReader accountReader = mapper.readerFor(Account.class);
+    private final ObjectWriter messageWriter = mapper.writerFor(Message.class);
+    private final ObjectWriter accountWriter = mapper.writerFor(Account.class);
+    private final ObjectWriter messageListWriter = mapper.writerFor(new TypeReference<List<Message>>(){});
+    private final ObjectReader messageListReader = mapper.readerFor(new TypeReference<List<Message>>(){});
+    private final ObjectWriter batchResultListWriter =
+            mapper.writerFor(new TypeReference<List<MessageBatchResult>>(){});
+
+    /**
+     * @param body request body
+     * @return the message it describes
+     * @throws IOException if the body is not a valid message
+     */
+    public Message readMessage(byte[] body) throws IOException {
+        return messageReader.readValue(body);
+    }
+
+    /**
+     * @param body request body
+     * @return the account it describes
+     * @throws IOException if the body is not a valid account
+     */
+    public Account readAccount(byte[] body) throws IOException {
+        return accountReader.readValue(body);
+    }
+
+    /**
+     * @param body request body
+     * @return the messages in the JSON array it holds
+     * @throws IOException if the body is not a valid array of messages
+     */
+    public List<Message> readMessages(byte[] body) throws IOException {
+        return messageListReader.readValue(body);
+    }
+
+    public byte[] writeMessage(Message message) throws IOException {
+        return messageWriter.writeValueAsBytes(message);
+    }
+
+    public byte[] writeAccount(Account account) throws IOException {
+        return accountWriter.writeValueAsBytes(account);
+    }
+
+    public byte[] writeMessages(List<Message> messages) throws IOException {
+        return messageListWriter.writeValueAsBytes(messages);
+    }
+
+    public byte[] writeBatchResults(List<MessageBatchResult> results) throws IOException {
+        return batchResultListWriter.writeValueAsBytes(results);
+    }
+
+    /**
+     * Opens a generator that writes directly to the given stream, leaving the stream open when the generator closes.
+     * @param out destination, typically the response output stream
+     * @return a generator that can write model objects with writeObject()
+     * @throws IOException if the generator cannot be created
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return mapper.getFactory().createGenerator(out);
+    }
+
+    /**
+     * Strings are passed through unchanged, matching Javalin's own Jackson mapper.
+     */
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        if (obj instanceof String)
+            return (String) obj;
+        try {
+            return mapper.writerFor(mapper.constructType(type)).writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        if (obj instanceof String)
+            return new ByteArrayInputStream(((String) obj).getBytes(StandardCharsets.UTF_8));
+        try {
+            return new ByteArrayInputStream(mapper.writerFor(mapper.constructType(type)).writeValueAsBytes(obj));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type type) {
+        try {
+            return mapper.readerFor(mapper.constructType(type)).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type type) {
+        try {
+            return mapper.readerFor(mapper.constructType(type)).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
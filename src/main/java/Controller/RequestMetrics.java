@@ -0,0 +1,123 @@
+package Controller;
+
+import Util.LatencyHistogram;
+import Util.Metrics;
+import io.javalin.event.HandlerMetaInfo;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-route HTTP metrics for one Javalin app.
+ *
+ * Routes are registered as the controller adds its handlers, so every route is exported from the start, even before
+ * it has served a request. A before-handler stamps the start time and counts the request as in flight; Javalin's
+ * request logger, which runs once the response is complete, records latency and status against the matched route.
+ * Requests that match no route are counted under route="unmatched" so unknown paths cannot grow the label set.
+ */
+public class RequestMetrics {
+    private static final String START_ATTRIBUTE = "requestMetrics.start";
+    private static final String UNMATCHED = "unmatched";
+
+    private final Map<String, RouteMetrics> routes = new ConcurrentSkipListMap<>();
+    private final Map<HandlerType, LongAdder> inFlight = new EnumMap<>(HandlerType.class);
+
+    public RequestMetrics() {
+        for (HandlerType type : HandlerType.values()) {
+            if (type.isHttpMethod())
+                inFlight.put(type, new LongAdder());
+        }
+    }
+
+    private static class RouteMetrics {
+        final String method;
+        final String route;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        RouteMetrics(String method, String route) {
+            this.method = method;
+            this.route = route;
+        }
+    }
+
+    /**
+     * Listener for Javalin's handlerAdded event.
+     * @param handler the handler that was just added to the app
+     */
+    public void register(HandlerMetaInfo handler) {
+        if (handler.getHttpMethod().isHttpMethod())
+            route(handler.getHttpMethod().name(), handler.getPath());
+    }
+
+    private RouteMetrics route(String method, String route) {
+        return routes.computeIfAbsent(method + " " + route, key -> new RouteMetrics(method, route));
+    }
+
+    /**
+     * Before-handler that marks the start of a request.
+     */
+    public void onStart(Context ctx) {
+        ctx.attribute(START_ATTRIBUTE, System.nanoTime());
+        LongAdder methodInFlight = inFlight.get(ctx.method());
+        if (methodInFlight != null)
+            methodInFlight.increment();
+    }
+
+    /**
+     * Request logger that records a completed request.
+     * @param ctx context of the completed request
+     * @param executionTimeMs Javalin's own measurement, used only if onStart did not run
+     */
+    public void onComplete(Context ctx, Float executionTimeMs) {
+        Long start = ctx.attribute(START_ATTRIBUTE);
+        long nanos = start != null ? System.nanoTime() - start : (long) (executionTimeMs * 1_000_000);
+        LongAdder methodInFlight = inFlight.get(ctx.method());
+        if (start != null && methodInFlight != null)
+            methodInFlight.decrement();
+
+        RouteMetrics route = routes.get(ctx.method().name() + " " + matchedRoute(ctx));
+        if (route == null)
+            route = route(ctx.method().name(), UNMATCHED);
+        route.latency.record(nanos);
+        route.statuses.computeIfAbsent(ctx.statusCode(), status -> new LongAdder()).increment();
+    }
+
+    private static String matchedRoute(Context ctx) {
+        try {
+            return ctx.endpointHandlerPath();
+        } catch (RuntimeException e) {
+            return UNMATCHED;
+        }
+    }
+
+    /**
+     * Append the HTTP metrics in Prometheus text format.
+     * @param out destination
+     */
+    public void writeTo(StringBuilder out) {
+        Metrics.family(out, "http_requests_total", "counter", "Completed HTTP requests by route and status code.");
+        for (RouteMetrics route : routes.values()) {
+            for (Map.Entry<Integer, LongAdder> status : route.statuses.entrySet()) {
+                Metrics.sample(out, "http_requests_total", Metrics.labels("method", route.method,
+                        "route", route.route, "status", String.valueOf(status.getKey())), status.getValue().sum());
+            }
+        }
+
+        Metrics.family(out, "http_request_duration_seconds", "histogram", "HTTP request latency by route.");
+        for (RouteMetrics route : routes.values()) {
+            Metrics.histogram(out, "http_request_duration_seconds",
+                    Metrics.labels("method", route.method, "route", route.route), route.latency);
+        }
+
+        Metrics.family(out, "http_requests_in_flight", "gauge", "HTTP requests currently being served by method.");
+        for (Map.Entry<HandlerType, LongAdder> method : inFlight.entrySet())
+            Metrics.sample(out, "http_requests_in_flight", Metrics.labels("method", method.getKey().name()),
+                    method.getValue().sum());
+    }
+}
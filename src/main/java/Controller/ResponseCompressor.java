@@ -0,0 +1,271 @@
+package Controller;
+
+import Util.LatencyHistogram;
+import Util.Metrics;
+import io.javalin.http.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiated response compression for one Javalin app, used instead of Javalin's own.
+ *
+ * The encoding is picked from the request's Accept-Encoding, preferring gzip over deflate, and bodies smaller than
+ * minBytes are sent as they are, since compressing them saves less than it costs. Bodies that are identified by an
+ * ETag can be sent with a cache key built from it: their compressed bytes are kept in a bounded LRU cache, so polling
+ * clients that get the same single message or unchanged timeline over and over are served without compressing it
+ * again. Because the ETag changes whenever the data does, cached bytes never need to be invalidated; stale ones simply
+ * age out.
+ *
+ * A compressed body is a different representation from the identity one, so its strong ETag must differ too: when a
+ * response with an ETag is compressed, the encoding is appended to the tag, e.g. "v123-gzip". Conditional requests
+ * strip that suffix with withoutEncoding before comparing.
+ *
+ * Compression time, bytes in and out and cache hits are kept per encoding for /metrics.
+ */
+public class ResponseCompressor {
+    private final int minBytes;
+    private final int level;
+    private final long maxCacheBytes;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private long cacheBytes;
+    private final Map<Encoding, EncodingMetrics> metrics = new LinkedHashMap<>();
+
+    /**
+     * Content codings this server can produce, in order of preference.
+     */
+    enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+    }
+
+    private static class EncodingMetrics {
+        final LatencyHistogram duration = new LatencyHistogram();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder cacheHits = new LongAdder();
+    }
+
+    /**
+     * @param minBytes smallest body that is compressed
+     * @param level Deflater compression level, 1 (fastest) to 9 (smallest)
+     * @param maxCacheBytes memory budget for cached compressed bodies; 0 disables the cache
+     */
+    public ResponseCompressor(int minBytes, int level, long maxCacheBytes) {
+        this.minBytes = minBytes;
+        this.level = level;
+        this.maxCacheBytes = maxCacheBytes;
+        for (Encoding encoding : Encoding.values())
+            metrics.put(encoding, new EncodingMetrics());
+    }
+
+    /**
+     * Sets a body on the response, compressed if the client accepts it and it is large enough.
+     * @param ctx request context; the content type should already be set
+     * @param body encoded body
+     * @param cacheKey identifies this exact body, for example its ETag and query string, or null if it is not cacheable
+     */
+    public void send(Context ctx, byte[] body, String cacheKey) {
+        Encoding encoding = body.length < minBytes ? null : negotiate(ctx.header("Accept-Encoding"));
+        if (body.length >= minBytes)
+            ctx.header("Vary", "Accept-Encoding");
+        if (encoding == null) {
+            ctx.result(body);
+            return;
+        }
+        EncodingMetrics encodingMetrics = metrics.get(encoding);
+        String key = cacheKey == null || maxCacheBytes == 0 ? null : encoding.token + " " + cacheKey;
+        byte[] compressed = key == null ? null : cached(key);
+        if (compressed != null) {
+            encodingMetrics.cacheHits.increment();
+        }
+        else {
+            long start = System.nanoTime();
+            compressed = compress(body, encoding);
+            encodingMetrics.duration.record(System.nanoTime() - start);
+            encodingMetrics.bytesIn.add(body.length);
+            encodingMetrics.bytesOut.add(compressed.length);
+            if (key != null)
+                cache(key, compressed);
+        }
+        setContentEncoding(ctx, encoding);
+        ctx.result(compressed);
+    }
+
+    /**
+     * Opens the response output stream for a body of unknown length, compressing it if the client accepts it.
+     * Closing the returned stream finishes the compressed data but leaves the response stream open.
+     * @param ctx request context; status and content type should already be set
+     * @return stream to write the body to
+     * @throws IOException if the response stream cannot be opened
+     */
+    public OutputStream stream(Context ctx) throws IOException {
+        ctx.header("Vary", "Accept-Encoding");
+        Encoding encoding = negotiate(ctx.header("Accept-Encoding"));
+        OutputStream response = new FilterOutputStream(ctx.outputStream()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        if (encoding == null)
+            return response;
+        setContentEncoding(ctx, encoding);
+        return open(response, encoding);
+    }
+
+    /**
+     * Marks the response as compressed and gives its ETag, if it has one, the encoding's suffix.
+     */
+    private static void setContentEncoding(Context ctx, Encoding encoding) {
+        ctx.header("Content-Encoding", encoding.token);
+        String etag = ctx.res().getHeader("ETag");
+        if (etag != null && etag.endsWith("\""))
+            ctx.header("ETag", etag.substring(0, etag.length() - 1) + "-" + encoding.token + "\"");
+    }
+
+    /**
+     * @param etag an entity tag as sent by a client, without any W/ prefix
+     * @return the tag with the suffix added for a compressed encoding removed, so it can be compared with the tag of
+     *         the identity representation
+     */
+    static String withoutEncoding(String etag) {
+        for (Encoding encoding : Encoding.values()) {
+            String suffix = "-" + encoding.token + "\"";
+            if (etag.endsWith(suffix))
+                return etag.substring(0, etag.length() - suffix.length()) + "\"";
+        }
+        return etag;
+    }
+
+    /**
+     * Picks the preferred encoding the client accepts. Codings with q=0 are refused, and * stands for any coding not
+     * listed by name.
+     * @param acceptEncoding value of the Accept-Encoding header, or null
+     * @return the encoding to use, or null to send the body as it is
+     */
+    static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty())
+            return null;
+        Map<String, Boolean> accepted = new LinkedHashMap<>();
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean acceptable = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(parameter.substring(2)) > 0;
+                    }
+                    catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+            accepted.put(coding, acceptable);
+        }
+        Boolean wildcard = accepted.get("*");
+        for (Encoding encoding : Encoding.values()) {
+            Boolean acceptable = accepted.get(encoding.token);
+            if (acceptable == null ? Boolean.TRUE.equals(wildcard) : acceptable)
+                return encoding;
+        }
+        return null;
+    }
+
+    private byte[] compress(byte[] body, Encoding encoding) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream out = open(buffer, encoding)) {
+            out.write(body);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private OutputStream open(OutputStream out, Encoding encoding) throws IOException {
+        if (encoding == Encoding.GZIP) {
+            return new GZIPOutputStream(out, 8192) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), 8192) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        };
+    }
+
+    private synchronized byte[] cached(String key) {
+        return cache.get(key);
+    }
+
+    private synchronized void cache(String key, byte[] compressed) {
+        if (compressed.length > maxCacheBytes / 8)
+            return;
+        byte[] previous = cache.put(key, compressed);
+        cacheBytes += compressed.length - (previous == null ? 0 : previous.length);
+        Iterator<byte[]> eldest = cache.values().iterator();
+        while (cacheBytes > maxCacheBytes && eldest.hasNext()) {
+            cacheBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Append the compression metrics in Prometheus text format.
+     * @param out destination
+     */
+    public void writeTo(StringBuilder out) {
+        Metrics.family(out, "http_compression_duration_seconds", "histogram",
+                "CPU time spent compressing response bodies, by encoding.");
+        for (Map.Entry<Encoding, EncodingMetrics> encoding : metrics.entrySet())
+            Metrics.histogram(out, "http_compression_duration_seconds",
+                    Metrics.labels("encoding", encoding.getKey().token), encoding.getValue().duration);
+        Metrics.family(out, "http_compression_input_bytes_total", "counter",
+                "Response bytes before compression; divide output by input for the compression ratio.");
+        for (Map.Entry<Encoding, EncodingMetrics> encoding : metrics.entrySet())
+            Metrics.sample(out, "http_compression_input_bytes_total",
+                    Metrics.labels("encoding", encoding.getKey().token), encoding.getValue().bytesIn.sum());
+        Metrics.family(out, "http_compression_output_bytes_total", "counter", "Response bytes after compression.");
+        for (Map.Entry<Encoding, EncodingMetrics> encoding : metrics.entrySet())
+            Metrics.sample(out, "http_compression_output_bytes_total",
+                    Metrics.labels("encoding", encoding.getKey().token), encoding.getValue().bytesOut.sum());
+        Metrics.family(out, "http_compression_cache_hits_total", "counter",
+                "Responses sent with compressed bytes from the cache instead of compressing again.");
+        for (Map.Entry<Encoding, EncodingMetrics> encoding : metrics.entrySet())
+            Metrics.sample(out, "http_compression_cache_hits_total",
+                    Metrics.labels("encoding", encoding.getKey().token), encoding.getValue().cacheHits.sum());
+        Metrics.family(out, "http_compression_cache_bytes", "gauge", "Size of the cached compressed bodies.");
+        synchronized (this) {
+            Metrics.sample(out, "http_compression_cache_bytes", "", cacheBytes);
+        }
+    }
+}
@@ -1,15 +1,40 @@
 package Controller;
 
+import DAO.AccountDAO;
+import DAO.MessageDAO;
 import Model.Account;
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.Page;
 import Service.AccountService;
+import Service.MessageCache;
 import Service.MessageService;
+import Service.SearchIndex;
+import Service.SessionTokens;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import Util.DatabaseUnavailableException;
+import Util.PasswordHashExecutor;
+import Util.RateLimiter;
+import Util.Metrics;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -17,12 +42,72 @@ import java.util.List;
  * refer to prior mini-project labs and lecture materials for guidance on how a controller may be built.
  */
 public class SocialMediaController {
+    /**
+     * Response header carrying the session token issued at login
+     */
+    private static final String SESSION_TOKEN_HEADER = "X-Session-Token";
+
     AccountService accountService;
     MessageService messageService;
+    /**
+     * JSON codec shared by all handlers, with cached readers and writers for the model classes
+     */
+    JsonCodec codec = new JsonCodec();
+    /**
+     * Per-route request counts and latencies exported on /metrics
+     */
+    RequestMetrics requestMetrics = new RequestMetrics();
+    /**
+     * Compresses response bodies for clients that accept it and caches the compressed bytes of bodies with an ETag.
+     * Tuned with socialmedia.compression.minBytes, socialmedia.compression.level and socialmedia.compression.cacheBytes.
+     */
+    ResponseCompressor compressor = new ResponseCompressor(
+            Integer.getInteger("socialmedia.compression.minBytes", 1500),
+            Integer.getInteger("socialmedia.compression.level", 6),
+            Long.getLong("socialmedia.compression.cacheBytes", 8L << 20));
+    /**
+     * Run request handling, and so the blocking JDBC calls it makes, on virtual threads instead of Jetty's bounded
+     * platform thread pool. Opt in with socialmedia.virtualThreads=true; it takes effect on Java 21 or later and falls
+     * back to platform threads on older JVMs.
+     */
+    boolean virtualThreads = Boolean.getBoolean("socialmedia.virtualThreads");
+    /**
+     * Leading part of every ETag. It is new on every start because the version counters behind the ETags start from
+     * zero again, so a tag issued before a restart can never match one issued after it.
+     */
+    String etagEpoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    /**
+     * Per-route rate limits, checked in the handlers before any database or password hashing work. Each policy is
+     * tuned with socialmedia.rateLimit.{policy}.perSecond and .burst, and socialmedia.rateLimit.enabled=false turns
+     * them all off.
+     */
+    boolean rateLimitsEnabled = !"false".equalsIgnoreCase(System.getProperty("socialmedia.rateLimit.enabled"));
+    RateLimiter loginByIp = rateLimiter("login.ip", 1, 10);
+    RateLimiter loginByUsername = rateLimiter("login.username", 0.1, 5);
+    RateLimiter registerByIp = rateLimiter("register.ip", 0.5, 10);
+    RateLimiter messagesByIp = rateLimiter("messages.ip", 50, 200);
+    RateLimiter messagesByAccount = rateLimiter("messages.account", 20, 100);
+    /**
+     * Signs the session tokens issued at login, with the key in socialmedia.auth.secret and a lifetime of
+     * socialmedia.auth.tokenTtlSeconds. Posting a message without a token is still allowed for existing clients unless
+     * socialmedia.auth.required=true.
+     */
+    SessionTokens sessionTokens = new SessionTokens(System.getProperty("socialmedia.auth.secret"),
+            Long.getLong("socialmedia.auth.tokenTtlSeconds", 3600));
+    boolean authRequired = Boolean.getBoolean("socialmedia.auth.required");
+    /**
+     * Streamed listings run on the HTTP thread and hold a pooled connection for as long as the client takes to read
+     * them, so they are not queued on the DatabaseExecutor. Instead at most this many run at once, by default half the
+     * pool, and the rest are shed with 503 like an overloaded executor. Set with socialmedia.stream.maxConcurrent; 0
+     * refuses every streamed listing.
+     */
+    Semaphore streamPermits = new Semaphore(Integer.getInteger("socialmedia.stream.maxConcurrent",
+            Math.max(1, ConnectionUtil.getPoolStats().maxSize / 2)));
 
     public SocialMediaController() {
-        this.accountService = new AccountService();
-        this.messageService = new MessageService();
+        AccountDAO accountDAO = new AccountDAO();
+        this.accountService = new AccountService(accountDAO);
+        this.messageService = new MessageService(new MessageDAO(), accountDAO);
     }
 
     /**
@@ -31,11 +116,26 @@ public class SocialMediaController {
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(codec);
+            // bodies are compressed by ResponseCompressor, which can reuse the compressed bytes of unchanged bodies
+            config.compression.none();
+            config.requestLogger.http(requestMetrics::onComplete);
+            if (virtualThreads)
+                config.jetty.server(this::createVirtualThreadServer);
+        });
+        app.events(event -> event.handlerAdded(requestMetrics::register));
+        app.before(requestMetrics::onStart);
+        app.exception(RejectedExecutionException.class, this::overloadedHandler);
+        app.exception(DatabaseUnavailableException.class, this::overloadedHandler);
+        app.get("/metrics", this::getMetricsHandler);
         app.post("/register", this::postNewAccountHandler);
         app.post("/login", this::postLoginHandler);
+        app.post("/logout", this::postLogoutHandler);
         app.post("/messages", this::postNewMessageHandler);
+        app.post("/messages/batch", this::postMessageBatchHandler);
         app.get("/messages", this::getAllMessagesHandler);
+        app.get("/messages/search", this::searchMessagesHandler);
         app.get("/messages/{message_id}", this::getMessageByIdHandler);
         app.delete("/messages/{message_id}", this::deleteMessageByIdHandler);
         app.patch("/messages/{message_id}", this::patchMessageByIdHandler);
@@ -43,147 +143,743 @@ public class SocialMediaController {
         return app;
     }
 
+    /**
+     * Creates a Jetty server whose thread pool hands request handling to a new virtual thread per request. Platform
+     * threads in the pool are then only used for accepting and selecting, so a slow query parks a cheap virtual thread
+     * and database concurrency is bounded by the connection pool rather than by the number of request threads.
+     * Sized like Javalin's default pool.
+     * @return a server for Javalin to add its connector and servlet to
+     */
+    private Server createVirtualThreadServer() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(250, 8, 60_000);
+        threadPool.setName("JettyServerThreadPool");
+        if (VirtualThreads.areSupported())
+            threadPool.setUseVirtualThreads(true);
+        else
+            System.out.println("Virtual threads need Java 21 or later, handling requests on platform threads");
+        return new Server(threadPool);
+    }
+
     /**
      * Handler to post a new account.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into an Account object.
+     * The shared JsonCodec will convert the JSON of the POST request into an Account object.
      * If AccountService returns a null Account (meaning posting an Account was unsuccessful), the API will return status code 400 (Client error)
      * If posting an Account was successful, the API will return status code 200 (OK)
+     * The password is hashed on the PasswordHashExecutor; if its queue is full the API will return status code 503.
+     * If the client IP is over its registration rate limit, the API will return status code 429 (Too Many Requests).
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.post method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
-     */
-    private void postNewAccountHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account newAccount = accountService.registerNewAccount(account);
-        if (newAccount != null) {
-            ctx.json(mapper.writeValueAsString(newAccount));
-            ctx.status(200);
-        }
-        else {
-            ctx.status(400);
-        }
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
+     */
+    private void postNewAccountHandler(Context ctx) throws IOException {
+        Account account = codec.readAccount(ctx.bodyAsBytes());
+        if (rateLimited(ctx, registerByIp, ctx.ip()))
+            return;
+        asyncCompose(ctx, () -> accountService.submitNewAccount(account), newAccount -> {
+            if (newAccount != null) {
+                send(ctx, codec.writeAccount(newAccount));
+                ctx.status(200);
+            }
+            else {
+                ctx.status(400);
+            }
+        });
     }
 
     /**
      * Handler for logging in
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into an Account object.
+     * The shared JsonCodec will convert the JSON of the POST request into an Account object.
      * If AccountService returns a null Account (meaning logging in was unsuccessful), the API will return status code 401 (Unauthorized)
      * If logging in was successful, the API will return status code 200 (OK)
+     * The password is verified on the PasswordHashExecutor; if its queue is full the API will return status code 503.
+     * If the client IP or the username is over its login rate limit, the API will return status code 429.
+     * A successful login also returns a signed session token in the X-Session-Token header, to be sent back as
+     * "Authorization: Bearer {token}".
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.post method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
-     */
-    private void postLoginHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Account account = mapper.readValue(ctx.body(), Account.class);
-        Account login = accountService.verifyLogin(account);
-        if (login != null) {
-            ctx.json(mapper.writeValueAsString(login));
-            ctx.status(200);
-        }
-        else {
-            ctx.status(401);
-        }
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
+     */
+    private void postLoginHandler(Context ctx) throws IOException {
+        Account account = codec.readAccount(ctx.bodyAsBytes());
+        if (rateLimited(ctx, loginByIp, ctx.ip()) || rateLimited(ctx, loginByUsername, account.getUsername()))
+            return;
+        asyncCompose(ctx, () -> accountService.submitLogin(account), login -> {
+            if (login != null) {
+                ctx.header(SESSION_TOKEN_HEADER, sessionTokens.issue(login.getAccount_id()));
+                send(ctx, codec.writeAccount(login));
+                ctx.status(200);
+            }
+            else {
+                ctx.status(401);
+            }
+        });
+    }
+
+    /**
+     * Handler for logging out.
+     * The session token in the Authorization header is revoked, so it can no longer be used even though it has not
+     * expired. If it was valid the API will return status code 200 (OK), otherwise 401 (Unauthorized).
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     */
+    private void postLogoutHandler(Context ctx) {
+        ctx.status(sessionTokens.revoke(bearerToken(ctx)) ? 200 : 401);
     }
 
     /**
      * Handler to post a new message.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into a Message object.
+     * The shared JsonCodec will convert the JSON of the POST request into a Message object.
      * If MessageService returns a null Message (meaning posting a Message was unsuccessful), the API will return status code 400 (Client error)
      * If posting a Message was successful, the API will return status code 200 (OK)
+     * Concurrent posts are committed together by MessageService's group commit; each response is sent only after the
+     * transaction holding its message has committed.
+     * If the client IP, or the account of a verified session token, is over its rate limit, the API will return status
+     * code 429. Without a token only the IP's limit applies, since posted_by is not proven to be the client's.
+     * With a session token in the Authorization header the message is posted as the token's account, without looking
+     * the account up: posted_by may be left out, and if it names another account the API will return status code 403
+     * (Forbidden). An invalid, expired or revoked token, or no token when socialmedia.auth.required is set, gives 401.
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.post method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
-     */
-    private void postNewMessageHandler(Context ctx) throws JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
-        Message newMessage = messageService.createNewMessage(message);
-        if (newMessage != null) {
-            ctx.json(mapper.writeValueAsString(newMessage));
-            ctx.status(200);
-        }
-        else {
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
+     */
+    private void postNewMessageHandler(Context ctx) throws IOException {
+        Message message = codec.readMessage(ctx.bodyAsBytes());
+        String token = bearerToken(ctx);
+        Integer accountId = token == null ? null : sessionTokens.verify(token);
+        if (unauthorized(ctx, token, accountId) || forbidden(ctx, accountId, message))
+            return;
+        // posted_by in the body is whatever the client says, so only a verified account has a bucket of its own
+        if (rateLimited(ctx, messagesByIp, ctx.ip())
+                || accountId != null && rateLimited(ctx, messagesByAccount, String.valueOf(accountId)))
+            return;
+        boolean posterVerified = accountId != null;
+        asyncCompose(ctx, () -> messageService.submitNewMessage(message, posterVerified), newMessage -> {
+            if (newMessage != null) {
+                send(ctx, codec.writeMessage(newMessage));
+                ctx.status(200);
+            }
+            else {
+                ctx.status(400);
+            }
+        });
+    }
+
+    /**
+     * Handler to post several messages at once.
+     * The shared JsonCodec will convert the JSON array of the POST request into a list of Message objects, which are
+     * validated individually and persisted together in one transaction.
+     * If the body is not an array, or holds more than MessageService.MAX_BATCH_SIZE messages, the API will return status code 400 (Client error)
+     * Otherwise the API will return status code 200 (OK) with one result per message giving its status and, if it was
+     * persisted, the message with its new id.
+     * Every message of the batch counts against the client IP's message rate limit, as if it had been posted alone.
+     * Session tokens are checked as for POST /messages: with a token every message is posted as the token's account,
+     * filling in posted_by where it is left out, and if one names another account the API will return status code 403
+     * (Forbidden) for the whole batch; its messages then also count against the account's rate limit. An invalid
+     * token, or none when socialmedia.auth.required is set, gives 401.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
+     *            be available to this method automatically thanks to the app.post method.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
+     */
+    private void postMessageBatchHandler(Context ctx) throws IOException {
+        List<Message> messages = codec.readMessages(ctx.bodyAsBytes());
+        if (messages == null || messages.size() > MessageService.MAX_BATCH_SIZE) {
             ctx.status(400);
+            return;
+        }
+        String token = bearerToken(ctx);
+        Integer accountId = token == null ? null : sessionTokens.verify(token);
+        if (unauthorized(ctx, token, accountId))
+            return;
+        for (Message message : messages) {
+            if (forbidden(ctx, accountId, message))
+                return;
         }
+        int permits = Math.max(1, messages.size());
+        if (rateLimited(ctx, messagesByIp, ctx.ip(), permits)
+                || accountId != null && rateLimited(ctx, messagesByAccount, String.valueOf(accountId), permits))
+            return;
+        async(ctx, () -> messageService.createNewMessages(messages), results -> {
+            send(ctx, codec.writeBatchResults(results));
+            ctx.status(200);
+        });
     }
 
     /**
      * Handler to retrieve all messages.
+     * With ?stream=true the messages are written to the response one row at a time instead of being collected first.
+     * With ?since= or ?until= only the messages posted in that time range are listed, see getMessagesByTime.
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.put method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON or writing the response.
      */
-    private void getAllMessagesHandler(Context ctx) throws JsonProcessingException {
-        List<Message> messages = messageService.getAllMessages();
-        ctx.json(messages);
-        ctx.status(200);
+    private void getAllMessagesHandler(Context ctx) throws IOException {
+        if (isTimeRangeRequest(ctx)) {
+            getMessagesByTime(ctx, null, null);
+            return;
+        }
+        if (isStreamRequest(ctx)) {
+            stream(ctx, messageService::streamAllMessages);
+            return;
+        }
+        if (isPageRequest(ctx)) {
+            Integer after, before;
+            int limit;
+            try {
+                after = intQueryParam(ctx, "after");
+                before = intQueryParam(ctx, "before");
+                limit = pageSize(ctx);
+            }
+            catch (NumberFormatException e) {
+                ctx.status(400);
+                return;
+            }
+            async(ctx, () -> messageService.getMessagesPage(after, before, limit),
+                    page -> writePage(ctx, page, null));
+            return;
+        }
+        async(ctx, messageService::getAllMessages, messages -> {
+            send(ctx, codec.writeMessages(messages));
+            ctx.status(200);
+        });
+    }
+
+    /**
+     * Handler to search message text. q holds the words to look for and every one of them must appear in a message,
+     * ignoring case and punctuation. Results come in ascending message_id order, one page at a time, with after and
+     * limit as for paginated GET /messages and the next page's cursor in X-Next-Cursor.
+     * If q has no words or a cursor is not a number, the API will return status code 400 (Client Error).
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
+     *            be available to this method automatically thanks to the app.put method.
+     * @throws IOException will be thrown if there is an issue converting JSON or writing the response.
+     */
+    private void searchMessagesHandler(Context ctx) throws IOException {
+        String query = ctx.queryParam("q");
+        Integer after;
+        int limit;
+        try {
+            after = intQueryParam(ctx, "after");
+            limit = pageSize(ctx);
+        }
+        catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (query == null || SearchIndex.tokenize(query).isEmpty()) {
+            ctx.status(400);
+            return;
+        }
+        async(ctx, () -> messageService.searchMessages(query, after, limit), page -> writePage(ctx, page, null));
     }
 
     /**
      * Handler to retrieve message by id
+     * The response carries an ETag; if the request's If-None-Match holds it, the API will return status code 304 (Not
+     * Modified) without reading the message.
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.put method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
      */
-    private void getMessageByIdHandler(Context ctx) throws JsonProcessingException {
+    private void getMessageByIdHandler(Context ctx) throws IOException {
         int id = Integer.parseInt(ctx.pathParam("message_id"));
-        Message message = messageService.getMessageById(id);
-        if (message == null)
-            ctx.json("");
-        else ctx.json(message);
-        ctx.status(200);
+        String etag = etag("m", id, messageService.getMessageVersion(id));
+        if (notModified(ctx, etag))
+            return;
+        async(ctx, () -> messageService.getMessageById(id), message -> {
+            if (message == null)
+                ctx.json("");
+            else send(ctx, codec.writeMessage(message), etag);
+            ctx.status(200);
+        });
     }
 
     /**
      * Handler to delete message by id
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.put method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
      */
-    private void deleteMessageByIdHandler(Context ctx) throws JsonProcessingException {
+    private void deleteMessageByIdHandler(Context ctx) throws IOException {
         int id = Integer.parseInt(ctx.pathParam("message_id"));
-        Message message = messageService.deleteMessageById(id);
-        if (message == null)
-            ctx.json("");
-        else ctx.json(message);
-        ctx.status(200);
+        async(ctx, () -> messageService.deleteMessageById(id), message -> {
+            if (message == null)
+                ctx.json("");
+            else send(ctx, codec.writeMessage(message));
+            ctx.status(200);
+        });
     }
 
     /**
      * Handler to update a message.
-     * The Jackson ObjectMapper will automatically convert the JSON of the POST request into a Message object.
+     * The shared JsonCodec will convert the JSON of the POST request into a Message object.
      * If MessageService returns a null Message (meaning updating a Message was unsuccessful), the API will return status code 400 (Client error)
      * If updating a Message was successful, the API will return status code 200 (OK)
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.post method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON into an object.
      */
-    private void patchMessageByIdHandler(Context ctx) throws JsonProcessingException {
+    private void patchMessageByIdHandler(Context ctx) throws IOException {
         int id = Integer.parseInt(ctx.pathParam("message_id"));
-        ObjectMapper mapper = new ObjectMapper();
-        Message message = mapper.readValue(ctx.body(), Message.class);
-        Message updatedMessage = messageService.updateMessageById(id, message.getMessage_text());
-        if (updatedMessage != null) {
-            ctx.json(mapper.writeValueAsString(updatedMessage));
-            ctx.status(200);
-        }
-        else {
-            ctx.status(400);
-        }
+        Message message = codec.readMessage(ctx.bodyAsBytes());
+        async(ctx, () -> messageService.updateMessageById(id, message.getMessage_text()), updatedMessage -> {
+            if (updatedMessage != null) {
+                send(ctx, codec.writeMessage(updatedMessage));
+                ctx.status(200);
+            }
+            else {
+                ctx.status(400);
+            }
+        });
     }
 
     /**
      * Handler to retrieve all messages of a user by user id.
+     * With ?stream=true the messages are written to the response one row at a time instead of being collected first.
+     * The response carries an ETag that changes whenever one of the user's messages changes; if the request's
+     * If-None-Match holds it, the API will return status code 304 (Not Modified) without reading any messages.
+     * With ?since= or ?until= only the messages posted in that time range are listed, see getMessagesByTime.
      * @param ctx the context object handles information HTTP requests and generates responses within Javalin. It will
      *            be available to this method automatically thanks to the app.put method.
-     * @throws JsonProcessingException will be thrown if there is an issue converting JSON into an object.
+     * @throws IOException will be thrown if there is an issue converting JSON or writing the response.
      */
-    private void getAllMessagesByUserId(Context ctx) throws JsonProcessingException {
+    private void getAllMessagesByUserId(Context ctx) throws IOException {
         int id = Integer.parseInt(ctx.pathParam("account_id"));
-        List<Message> messages = messageService.getAllMessagesByUserId(id);
-        ctx.json(messages);
+        String etag = etag("a", id, messageService.getTimelineVersion(id));
+        if (notModified(ctx, etag))
+            return;
+        if (isTimeRangeRequest(ctx)) {
+            getMessagesByTime(ctx, id, etag + "?" + ctx.queryString());
+            return;
+        }
+        if (isStreamRequest(ctx)) {
+            stream(ctx, visitor -> messageService.streamMessagesByUserId(id, visitor));
+            return;
+        }
+        if (isPageRequest(ctx)) {
+            Integer after, before;
+            int limit;
+            try {
+                after = intQueryParam(ctx, "after");
+                before = intQueryParam(ctx, "before");
+                limit = pageSize(ctx);
+            }
+            catch (NumberFormatException e) {
+                ctx.status(400);
+                return;
+            }
+            async(ctx, () -> messageService.getMessagesPageByUserId(id, after, before, limit),
+                    page -> writePage(ctx, page, etag + "?" + ctx.queryString()));
+            return;
+        }
+        async(ctx, () -> messageService.getAllMessagesByUserId(id), messages -> {
+            send(ctx, codec.writeMessages(messages), etag);
+            ctx.status(200);
+        });
+    }
+
+    /**
+     * Lists the messages posted in a time range: since (inclusive) and until (exclusive) are time_posted_epoch values
+     * and either may be left out. Messages come ordered by time_posted_epoch and then message_id, a page at a time with
+     * limit as for paginated listings. When there are more, X-Next-Since and X-Next-Cursor hold the last message's
+     * time_posted_epoch and message_id; passing them back as since and after continues after it.
+     * If a parameter is not a number, after is given without since, or before is given, the API will return status
+     * code 400 (Client Error).
+     * @param postedBy user whose messages are listed, or null for all messages
+     * @param cacheKey identifies the page for the compressed body cache, or null
+     */
+    private void getMessagesByTime(Context ctx, Integer postedBy, String cacheKey) {
+        Long since, until;
+        Integer after;
+        int limit;
+        try {
+            since = longQueryParam(ctx, "since");
+            until = longQueryParam(ctx, "until");
+            after = intQueryParam(ctx, "after");
+            limit = pageSize(ctx);
+        }
+        catch (NumberFormatException e) {
+            ctx.status(400);
+            return;
+        }
+        if (ctx.queryParam("before") != null || after != null && since == null) {
+            ctx.status(400);
+            return;
+        }
+        async(ctx, () -> messageService.getMessagesByTime(postedBy, since, after, until, limit), page -> {
+            if (page.getNext_cursor() != null) {
+                List<Message> items = page.getItems();
+                ctx.header("X-Next-Since", String.valueOf(items.get(items.size() - 1).getTime_posted_epoch()));
+            }
+            writePage(ctx, page, cacheKey);
+        });
+    }
+
+    /**
+     * Writes the response once the blocking work behind a request has finished.
+     */
+    private interface Responder<T> {
+        void respond(T result) throws IOException;
+    }
+
+    /**
+     * Runs the blocking service call for a request on the DatabaseExecutor and completes the request asynchronously,
+     * so the HTTP thread is free while the query runs. If the executor's queue is full the RejectedExecutionException
+     * propagates to the overload handler, which answers 503 straight away.
+     * @param ctx the request being served
+     * @param work the service call
+     * @param responder writes the response from the call's result
+     */
+    private <T> void async(Context ctx, Supplier<T> work, Responder<T> responder) {
+        ctx.future(() -> respond(ctx, DatabaseExecutor.supply(work), responder));
+    }
+
+    /**
+     * Like async, for service calls that return a future of their own. The call itself runs on the DatabaseExecutor;
+     * its future may complete on another thread, and the executor thread is released as soon as the call returns.
+     */
+    private <T> void asyncCompose(Context ctx, Supplier<CompletableFuture<T>> work, Responder<T> responder) {
+        ctx.future(() -> respond(ctx, DatabaseExecutor.supply(work).thenCompose(future -> future), responder));
+    }
+
+    /**
+     * Writes the response once the result is ready. Work that the service hands on to another executor, such as
+     * password hashing, is only rejected once the request has gone async, and Javalin does not pass that failure to the
+     * overload handler, so a rejection, like a failure to borrow a database connection, is answered with 503 here.
+     */
+    private <T> CompletableFuture<Void> respond(Context ctx, CompletableFuture<T> result, Responder<T> responder) {
+        return result.handle((value, failure) -> {
+            if (failure == null) {
+                try {
+                    responder.respond(value);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+            if (cause instanceof RejectedExecutionException || cause instanceof DatabaseUnavailableException) {
+                overloadedHandler((RuntimeException) cause, ctx);
+                return null;
+            }
+            throw failure instanceof CompletionException ? (CompletionException) failure
+                    : new CompletionException(failure);
+        });
+    }
+
+    /**
+     * Handler for requests shed because the DatabaseExecutor's or PasswordHashExecutor's queue is full, too many
+     * listings are being streamed, or no database connection could be borrowed. The API will return status code 503
+     * (Service Unavailable) with a Retry-After header and an empty body.
+     */
+    private void overloadedHandler(RuntimeException e, Context ctx) {
+        ctx.header("Retry-After", String.valueOf(DatabaseExecutor.RETRY_AFTER_SECONDS));
+        ctx.status(503);
+    }
+
+    /**
+     * @return a strong ETag for the version of an entity; kind keeps message and account tags with equal ids apart
+     */
+    private String etag(String kind, int id, long version) {
+        return "\"" + etagEpoch + "-" + kind + id + "-" + version + "\"";
+    }
+
+    /**
+     * Sends the ETag and, if the request's If-None-Match lists it, in any encoding, or is *, answers 304 (Not Modified)
+     * with no body.
+     * The version in the tag must have been read before the data the full response would hold.
+     * @return true if the response is complete
+     */
+    private boolean notModified(Context ctx, String etag) {
+        ctx.header("ETag", etag);
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // If-None-Match uses weak comparison, so a W/ prefix added by an intermediary still matches
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            // a compressed response carried the tag with its encoding appended
+            if (ResponseCompressor.withoutEncoding(candidate).equals(etag)) {
+                ctx.header("ETag", candidate);
+                ctx.status(304);
+                return true;
+            }
+            if (candidate.equals("*")) {
+                ctx.status(304);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the token from an "Authorization: Bearer {token}" header, or null if there is none
+     */
+    private String bearerToken(Context ctx) {
+        String authorization = ctx.header("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7))
+            return null;
+        return authorization.substring(7).trim();
+    }
+
+    /**
+     * @return a rate limiter for one policy, with the rate and burst overridable by system properties
+     */
+    private static RateLimiter rateLimiter(String policy, double perSecond, int burst) {
+        String prefix = "socialmedia.rateLimit." + policy;
+        return new RateLimiter(policy,
+                Double.parseDouble(System.getProperty(prefix + ".perSecond", String.valueOf(perSecond))),
+                Integer.getInteger(prefix + ".burst", burst),
+                Integer.getInteger("socialmedia.rateLimit.maxKeys", 100_000));
+    }
+
+    /**
+     * Checks the session token of a post. An invalid, expired or revoked token, or none when socialmedia.auth.required
+     * is set, gives status code 401 (Unauthorized).
+     * @param token bearer token of the request, or null
+     * @param accountId the token's verified account, or null
+     * @return true if the request was rejected and the response is complete
+     */
+    private boolean unauthorized(Context ctx, String token, Integer accountId) {
+        if (token != null && accountId == null || token == null && authRequired) {
+            ctx.status(401);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes a message posted with a verified token the token account's: posted_by is filled in if it is left out, and
+     * naming another account gives status code 403 (Forbidden).
+     * @param accountId the token's verified account, or null for an anonymous post, which is left as it is
+     * @return true if the request was rejected and the response is complete
+     */
+    private boolean forbidden(Context ctx, Integer accountId, Message message) {
+        if (accountId == null || message == null)
+            return false;
+        if (message.getPosted_by() == 0)
+            message.setPosted_by(accountId);
+        else if (message.getPosted_by() != accountId) {
+            ctx.status(403);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes a token for the key. If there is none the API will return status code 429 (Too Many Requests) with a
+     * Retry-After header and an empty body.
+     * @return true if the request was rejected and the response is complete
+     */
+    private boolean rateLimited(Context ctx, RateLimiter limiter, String key) {
+        return rateLimited(ctx, limiter, key, 1);
+    }
+
+    /**
+     * Like rateLimited(ctx, limiter, key), taking one token per message of the request.
+     */
+    private boolean rateLimited(Context ctx, RateLimiter limiter, String key, int permits) {
+        if (!rateLimitsEnabled)
+            return false;
+        long waitMillis = limiter.tryAcquire(String.valueOf(key), permits);
+        if (waitMillis == 0)
+            return false;
+        ctx.header("Retry-After", String.valueOf((waitMillis + 999) / 1000));
+        ctx.status(429);
+        return true;
+    }
+
+    /**
+     * A listing is streamed when the caller asks for it with ?stream=true, e.g. for exports.
+     */
+    private boolean isStreamRequest(Context ctx) {
+        return "true".equalsIgnoreCase(ctx.queryParam("stream"));
+    }
+
+    /**
+     * Produces the rows of a streamed listing, e.g. MessageService.streamAllMessages.
+     */
+    private interface MessageSource {
+        void stream(MessageDAO.MessageVisitor visitor) throws IOException;
+    }
+
+    /**
+     * Streams a listing as a JSON array. If the source fails part way, the status and the first rows have already been
+     * sent, so the connection is aborted instead of closing the array: the client sees a broken response rather than a
+     * short list that looks complete.
+     * @throws RejectedExecutionException if the most streams allowed are already running; nothing has been sent
+     */
+    private void stream(Context ctx, MessageSource source) throws IOException {
+        if (!streamPermits.tryAcquire())
+            throw new RejectedExecutionException("Too many streamed listings in progress");
+        try {
+            streamAcquired(ctx, source);
+        }
+        finally {
+            streamPermits.release();
+        }
+    }
+
+    private void streamAcquired(Context ctx, MessageSource source) throws IOException {
+        JsonGenerator generator = startStream(ctx);
+        try {
+            source.stream(generator::writeObject);
+            generator.writeEndArray();
+        }
+        catch (IOException | RuntimeException e) {
+            Request.getBaseRequest(ctx.req()).getHttpChannel().abort(e);
+            // still release the compressor, without writing the end of the array
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            try {
+                generator.close();
+            }
+            catch (IOException | RuntimeException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        generator.close();
+    }
+
+    /**
+     * Commits the status and content type and opens a JSON array on the response output stream, compressed if the
+     * client accepts it.
+     * @return generator positioned inside the array; closing it finishes the compressed stream
+     */
+    private JsonGenerator startStream(Context ctx) throws IOException {
+        ctx.status(200);
+        ctx.contentType("application/json");
+        JsonGenerator generator = codec.createGenerator(compressor.stream(ctx));
+        generator.enable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartArray();
+        return generator;
+    }
+
+    /**
+     * Sets an already encoded JSON body on the response.
+     */
+    private void send(Context ctx, byte[] json) {
+        send(ctx, json, null);
+    }
+
+    /**
+     * Sets an already encoded JSON body on the response, compressed if the client accepts it.
+     * @param cacheKey identifies this exact body, so its compressed bytes can be reused, or null
+     */
+    private void send(Context ctx, byte[] json, String cacheKey) {
+        ctx.contentType("application/json");
+        compressor.send(ctx, json, cacheKey);
+    }
+
+    /**
+     * A listing is paginated as soon as any of the limit, after or before query parameters is present. Without them
+     * the list endpoints keep returning every matching message.
+     */
+    private boolean isPageRequest(Context ctx) {
+        return ctx.queryParam("limit") != null || ctx.queryParam("after") != null || ctx.queryParam("before") != null;
+    }
+
+    private boolean isTimeRangeRequest(Context ctx) {
+        return ctx.queryParam("since") != null || ctx.queryParam("until") != null;
+    }
+
+    /**
+     * @return the long value of a query parameter, or null if it is absent
+     * @throws NumberFormatException if the parameter is present but not an integer
+     */
+    private Long longQueryParam(Context ctx, String name) {
+        String value = ctx.queryParam(name);
+        return value == null ? null : Long.valueOf(value);
+    }
+
+    /**
+     * @return the integer value of a query parameter, or null if it is absent
+     * @throws NumberFormatException if the parameter is present but not an integer
+     */
+    private Integer intQueryParam(Context ctx, String name) {
+        String value = ctx.queryParam(name);
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    /**
+     * @return the requested page size, defaulting to MessageService.DEFAULT_PAGE_SIZE and capped at MAX_PAGE_SIZE
+     * @throws NumberFormatException if limit is not a positive integer
+     */
+    private int pageSize(Context ctx) {
+        Integer limit = intQueryParam(ctx, "limit");
+        if (limit == null)
+            return MessageService.DEFAULT_PAGE_SIZE;
+        if (limit < 1)
+            throw new NumberFormatException("limit must be positive");
+        return Math.min(limit, MessageService.MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Writes the items of a page as a JSON array. The cursors for the neighbouring pages are sent in the X-Next-Cursor
+     * and X-Prev-Cursor headers so the body keeps the same shape as an unpaginated listing.
+     * @param cacheKey identifies the page for the compressed body cache, or null
+     */
+    private void writePage(Context ctx, Page<Message> page, String cacheKey) throws IOException {
+        if (page.getNext_cursor() != null)
+            ctx.header("X-Next-Cursor", page.getNext_cursor().toString());
+        if (page.getPrev_cursor() != null)
+            ctx.header("X-Prev-Cursor", page.getPrev_cursor().toString());
+        send(ctx, codec.writeMessages(page.getItems()), cacheKey);
         ctx.status(200);
     }
+
+    /**
+     * Handler for scraping metrics in the Prometheus text format: per-route HTTP counts and latencies, per-DAO-method
+     * query latencies and errors, connection pool state, message cache, search index, recent segment, compression and
+     * password hashing statistics.
+     * @param ctx the context object handles information HTTP requests and generates responses within Javalin.
+     */
+    private void getMetricsHandler(Context ctx) {
+        StringBuilder out = new StringBuilder(32 * 1024);
+        requestMetrics.writeTo(out);
+        Metrics.writeDatabaseMetrics(out);
+
+        MessageCache.CacheStats cache = messageService.getMessageCacheStats();
+        Metrics.family(out, "message_cache_requests_total", "counter", "Message cache lookups by result.");
+        Metrics.sample(out, "message_cache_requests_total", Metrics.labels("result", "hit"), cache.hits);
+        Metrics.sample(out, "message_cache_requests_total", Metrics.labels("result", "miss"), cache.misses);
+        Metrics.family(out, "message_cache_evictions_total", "counter", "Messages evicted from the cache.");
+        Metrics.sample(out, "message_cache_evictions_total", "", cache.evictions);
+        Metrics.family(out, "message_cache_bytes", "gauge", "Estimated size of the cached messages.");
+        Metrics.sample(out, "message_cache_bytes", "", cache.bytes);
+        Metrics.family(out, "message_group_commits_total", "counter", "Transactions written for POST /messages.");
+        Metrics.sample(out, "message_group_commits_total", "", messageService.getGroupCommitCount());
+        Metrics.family(out, "message_group_commit_messages_total", "counter",
+                "Messages written by those transactions; divide by commits for the mean batch size.");
+        Metrics.sample(out, "message_group_commit_messages_total", "", messageService.getGroupCommitMessageCount());
+        Metrics.family(out, "search_index_terms", "gauge", "Distinct words in the message search index.");
+        Metrics.sample(out, "search_index_terms", "", messageService.getSearchTermCount());
+        Metrics.family(out, "search_index_postings_bytes", "gauge", "Size of the search index's encoded postings.");
+        Metrics.sample(out, "search_index_postings_bytes", "", messageService.getSearchPostingsBytes());
+        messageService.writeRecentMessagesMetrics(out);
+        compressor.writeTo(out);
+
+        Metrics.family(out, "password_hash_duration_seconds", "histogram",
+                "Time spent hashing or verifying one password.");
+        Metrics.histogram(out, "password_hash_duration_seconds", "", PasswordHashExecutor.getDurationHistogram());
+        Metrics.family(out, "password_hash_queue_wait_seconds", "histogram",
+                "Time password hashing work waited for a thread.");
+        Metrics.histogram(out, "password_hash_queue_wait_seconds", "", PasswordHashExecutor.getQueueWaitHistogram());
+        Metrics.family(out, "password_hash_active_threads", "gauge", "Password hashing threads running a task.");
+        Metrics.sample(out, "password_hash_active_threads", "", PasswordHashExecutor.getActiveCount());
+        Metrics.family(out, "password_hash_queue_depth", "gauge", "Password hashing tasks waiting for a thread.");
+        Metrics.sample(out, "password_hash_queue_depth", "", PasswordHashExecutor.getQueueDepth());
+        Metrics.family(out, "password_hash_queue_size", "gauge", "Capacity of the password hashing queue.");
+        Metrics.sample(out, "password_hash_queue_size", "", PasswordHashExecutor.getQueueSize());
+        Metrics.family(out, "password_hash_rejected_total", "counter",
+                "Registrations and logins rejected because the password hashing queue was full.");
+        Metrics.sample(out, "password_hash_rejected_total", "", PasswordHashExecutor.getRejectedCount());
+        RateLimiter.writeMetrics(out, List.of(loginByIp, loginByUsername, registerByIp, messagesByIp,
+                messagesByAccount));
+        sessionTokens.writeTo(out);
+
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        compressor.send(ctx, out.toString().getBytes(StandardCharsets.UTF_8), null);
+    }
 }
\ No newline at end of file
@@ -1,23 +1,167 @@
 package DAO;
 
 import Model.Account;
+import Util.ConcurrentBitSet;
 import Util.ConnectionUtil;
+import Util.Metrics;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AccountDAO {
-    
     /**
-     * Retrieve an account from the Account table, searching by username
+     * Latency and error counters exported on /metrics, one per method that goes to the database.
+     */
+    private static final Metrics.QueryMetrics LOAD_ACCOUNTS = Metrics.query("AccountDAO", "loadAccounts");
+    private static final Metrics.QueryMetrics ACCOUNT_EXISTS = Metrics.query("AccountDAO", "accountExists");
+    private static final Metrics.QueryMetrics EXISTING_ACCOUNT_IDS = Metrics.query("AccountDAO", "existingAccountIds");
+    private static final Metrics.QueryMetrics GET_ACCOUNT_BY_USERNAME =
+            Metrics.query("AccountDAO", "getAccountByUsername");
+    private static final Metrics.QueryMetrics GET_ACCOUNT_BY_ID = Metrics.query("AccountDAO", "getAccountById");
+    private static final Metrics.QueryMetrics ADD_ACCOUNT = Metrics.query("AccountDAO", "addAccount");
+    private static final Metrics.QueryMetrics UPDATE_PASSWORD = Metrics.query("AccountDAO", "updatePassword");
+
+    /**
+     * Ids of every account known to exist. Loaded when the DAO is created and extended by addAccount, so checking that
+     * a poster exists does not need a database round trip.
+     */
+    private final ConcurrentBitSet accountIds = new ConcurrentBitSet();
+    /**
+     * Accounts by username, warmed from the account table when the DAO is created and kept current by addAccount, so
+     * logins and username checks are answered without a query.
+     */
+    private final ConcurrentHashMap<String, Account> accountsByUsername = new ConcurrentHashMap<>();
+
+    public AccountDAO() {
+        loadAccounts();
+    }
+
+    /**
+     * Load all existing accounts into the in-memory indexes
+     */
+    private void loadAccounts() {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM account;";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                Account account = new Account(rs.getInt("account_id"),
+                                              rs.getString("username"),
+                                              rs.getString("password"));
+                index(account);
+            }
+        }
+        catch (SQLException e) {
+            LOAD_ACCOUNTS.error();
+            System.out.println(e.getMessage());
+        }
+        finally {
+            LOAD_ACCOUNTS.record(start);
+        }
+    }
+
+    private void index(Account account) {
+        accountIds.add(account.getAccount_id());
+        accountsByUsername.put(account.getUsername(), account);
+    }
+
+    /**
+     * Check whether an account exists. Answered from the in-memory index; the database is only consulted for ids the
+     * index has not seen, e.g. accounts inserted by another process.
+     * @param id account id
+     * @return true if an account with that id exists
+     */
+    public boolean accountExists(int id) {
+        if (accountIds.contains(id))
+            return true;
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            String sql = "SELECT account_id FROM account WHERE account_id = ?;";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setInt(1, id);
+            ResultSet rs = preparedStatement.executeQuery();
+            if (rs.next()) {
+                accountIds.add(id);
+                return true;
+            }
+        }
+        catch (SQLException e) {
+            ACCOUNT_EXISTS.error();
+            System.out.println(e.getMessage());
+        }
+        finally {
+            ACCOUNT_EXISTS.record(start);
+        }
+        return false;
+    }
+
+    /**
+     * Find which of the given ids belong to existing accounts. Ids in the in-memory index are accepted directly and the
+     * rest are checked with a single query.
+     * @param ids account ids
+     * @return the subset of ids that exist
+     */
+    public Set<Integer> existingAccountIds(Collection<Integer> ids) {
+        Set<Integer> existing = new HashSet<>();
+        List<Integer> unknown = new ArrayList<>();
+        for (int id : ids) {
+            if (accountIds.contains(id))
+                existing.add(id);
+            else unknown.add(id);
+        }
+        if (unknown.isEmpty())
+            return existing;
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            StringBuilder sql = new StringBuilder("SELECT account_id FROM account WHERE account_id IN (");
+            for (int i = 0; i < unknown.size(); i++)
+                sql.append(i == 0 ? "?" : ", ?");
+            sql.append(");");
+            PreparedStatement preparedStatement = connection.prepareStatement(sql.toString());
+            for (int i = 0; i < unknown.size(); i++)
+                preparedStatement.setInt(i + 1, unknown.get(i));
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                int id = rs.getInt("account_id");
+                accountIds.add(id);
+                existing.add(id);
+            }
+        }
+        catch (SQLException e) {
+            EXISTING_ACCOUNT_IDS.error();
+            System.out.println(e.getMessage());
+        }
+        finally {
+            EXISTING_ACCOUNT_IDS.record(start);
+        }
+        return existing;
+    }
+
+    /**
+     * Retrieve an account by username from the in-memory index, searching the Account table on a miss. Usernames that
+     * are not found are not remembered, so each check of a new username, e.g. on registration, still costs one query;
+     * that way an account inserted by another process is found as soon as it exists.
      * @param username username
      * @return account, null if error or account does not exist
      */
     public Account getAccountByUsername(String username) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        if (username == null)
+            return null;
+        Account cached = accountsByUsername.get(username);
+        if (cached != null)
+            return cached;
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
             String sql = "SELECT * FROM account WHERE username = ?;";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setString(1, username);
@@ -26,12 +170,17 @@ public class AccountDAO {
                 Account account = new Account(rs.getInt("account_id"),
                                               rs.getString("username"),
                                               rs.getString("password"));
+                index(account);
                 return account;
             }
         }
         catch (SQLException e) {
+            GET_ACCOUNT_BY_USERNAME.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            GET_ACCOUNT_BY_USERNAME.record(start);
+        }
         return null;
     }
 
@@ -41,8 +190,8 @@ public class AccountDAO {
      * @return account, null if error or account does not exist
      */
     public Account getAccountById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
             String sql = "SELECT * FROM account WHERE account_id = ?;";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, id);
@@ -55,8 +204,12 @@ public class AccountDAO {
             }
         }
         catch (SQLException e) {
+            GET_ACCOUNT_BY_ID.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            GET_ACCOUNT_BY_ID.record(start);
+        }
         return null;
     }
 
@@ -66,19 +219,55 @@ public class AccountDAO {
      * @return new account object if successfully added, null otherwise
      */
     public Account addAccount(Account account) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
             String sql = "INSERT INTO account (username, password) VALUES (?, ?);";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             preparedStatement.setString(1, account.getUsername());
             preparedStatement.setString(2, account.getPassword());
             preparedStatement.executeUpdate();
 
-            return getAccountByUsername(account.getUsername());
+            ResultSet keys = preparedStatement.getGeneratedKeys();
+            if (keys.next()) {
+                Account newAccount = new Account(keys.getInt(1), account.getUsername(), account.getPassword());
+                index(newAccount);
+                return newAccount;
+            }
         }
         catch (SQLException e) {
+            ADD_ACCOUNT.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            ADD_ACCOUNT.record(start);
+        }
         return null;
     }
+
+    /**
+     * Replaces the stored password of an account, e.g. with a stronger hash
+     * @param account the account with its new stored password
+     * @return true if the account was updated
+     */
+    public boolean updatePassword(Account account) {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            String sql = "UPDATE account SET password = ? WHERE account_id = ?;";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setString(1, account.getPassword());
+            preparedStatement.setInt(2, account.getAccount_id());
+            if (preparedStatement.executeUpdate() > 0) {
+                index(account);
+                return true;
+            }
+        }
+        catch (SQLException e) {
+            UPDATE_PASSWORD.error();
+            System.out.println(e.getMessage());
+        }
+        finally {
+            UPDATE_PASSWORD.record(start);
+        }
+        return false;
+    }
 }
@@ -2,59 +2,135 @@ package DAO;
 
 import Model.Message;
 import Util.ConnectionUtil;
+import Util.Metrics;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class MessageDAO {
+    /**
+     * Latency and error counters exported on /metrics, one per method that goes to the database.
+     */
+    private static final Metrics.QueryMetrics NEW_MESSAGE = Metrics.query("MessageDAO", "newMessage");
+    private static final Metrics.QueryMetrics NEW_MESSAGES = Metrics.query("MessageDAO", "newMessages");
+    private static final Metrics.QueryMetrics GET_ALL_MESSAGES = Metrics.query("MessageDAO", "getAllMessages");
+    private static final Metrics.QueryMetrics GET_MESSAGES_PAGE = Metrics.query("MessageDAO", "getMessagesPage");
+    private static final Metrics.QueryMetrics GET_MESSAGES_BY_TIME = Metrics.query("MessageDAO", "getMessagesByTime");
+    private static final Metrics.QueryMetrics STREAM_MESSAGES = Metrics.query("MessageDAO", "streamMessages");
+    private static final Metrics.QueryMetrics GET_MESSAGE_BY_ID = Metrics.query("MessageDAO", "getMessageById");
+    private static final Metrics.QueryMetrics DELETE_MESSAGE_BY_ID = Metrics.query("MessageDAO", "deleteMessageById");
+    private static final Metrics.QueryMetrics UPDATE_MESSAGE_BY_ID = Metrics.query("MessageDAO", "updateMessageById");
+    private static final Metrics.QueryMetrics GET_ALL_MESSAGES_BY_USER_ID =
+            Metrics.query("MessageDAO", "getAllMessagesByUserId");
+
+    /**
+     * Number of rows fetched per round trip when streaming, set with socialmedia.stream.fetchSize
+     */
+    private static final int STREAM_FETCH_SIZE = Integer.getInteger("socialmedia.stream.fetchSize", 1000);
+
+    /**
+     * Receives messages one at a time while a query is being streamed.
+     */
+    public interface MessageVisitor {
+        void visit(Message message) throws IOException;
+    }
+
     /**
      * Inserts a new message into the Message table
      * @param message message to be added
      * @return new message object if successfully added, null otherwise
      */
     public Message newMessage(Message message) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
             String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             preparedStatement.setInt(1, message.getPosted_by());
             preparedStatement.setString(2, message.getMessage_text());
             preparedStatement.setLong(3, message.getTime_posted_epoch());
             preparedStatement.executeUpdate();
 
-            sql = "SELECT * FROM message WHERE posted_by = ? AND message_text = ? AND time_posted_epoch = ?;";
-            preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, message.getPosted_by());
-            preparedStatement.setString(2, message.getMessage_text());
-            preparedStatement.setLong(3, message.getTime_posted_epoch());
-            ResultSet rs = preparedStatement.executeQuery();
-            while (rs.next()) {
-                Message newMessage = new Message(rs.getInt("message_id"),
-                                                 rs.getInt("posted_by"),
-                                                 rs.getString("message_text"),
-                                                 rs.getLong("time_posted_epoch"));
-                return newMessage;
+            ResultSet keys = preparedStatement.getGeneratedKeys();
+            if (keys.next()) {
+                return new Message(keys.getInt(1),
+                                   message.getPosted_by(),
+                                   message.getMessage_text(),
+                                   message.getTime_posted_epoch());
             }
         }
         catch (SQLException e) {
+            NEW_MESSAGE.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            NEW_MESSAGE.record(start);
+        }
         return null;
     }
 
+    /**
+     * Inserts several messages into the Message table with one JDBC batch in a single transaction
+     * @param messages messages to be added
+     * @return the new messages with their generated ids, in the same order, or null if the batch was rolled back
+     */
+    public List<Message> newMessages(List<Message> messages) {
+        List<Message> newMessages = new ArrayList<>(messages.size());
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?);";
+                PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                for (Message message : messages) {
+                    preparedStatement.setInt(1, message.getPosted_by());
+                    preparedStatement.setString(2, message.getMessage_text());
+                    preparedStatement.setLong(3, message.getTime_posted_epoch());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+
+                ResultSet keys = preparedStatement.getGeneratedKeys();
+                for (Message message : messages) {
+                    if (!keys.next())
+                        throw new SQLException("Missing generated key for batched message");
+                    newMessages.add(new Message(keys.getInt(1),
+                                                message.getPosted_by(),
+                                                message.getMessage_text(),
+                                                message.getTime_posted_epoch()));
+                }
+                connection.commit();
+            }
+            catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        catch (SQLException e) {
+            NEW_MESSAGES.error();
+            System.out.println(e.getMessage());
+            return null;
+        }
+        finally {
+            NEW_MESSAGES.record(start);
+        }
+        return newMessages;
+    }
+
     /**
      * Retrieve all messages from the Message table
      * @return all messages
      */
     public List<Message> getAllMessages() {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
             String sql = "SELECT * FROM message;";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             ResultSet rs = preparedStatement.executeQuery();
@@ -67,19 +143,161 @@ public class MessageDAO {
             }
         }
         catch (SQLException e) {
+            GET_ALL_MESSAGES.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            GET_ALL_MESSAGES.record(start);
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieve one keyset page of messages, optionally restricted to one poster. Rows are located by seeking on the
+     * message_id primary key, so a deep page costs the same as the first one.
+     * @param postedBy account id to filter by, or null for all accounts
+     * @param after only messages with a message_id greater than this
+     * @param before only messages with a message_id less than this
+     * @param limit maximum number of rows to return
+     * @param descending true to take the rows closest to before rather than the rows closest to after
+     * @return up to limit messages, in ascending message_id order when ascending and descending order otherwise
+     */
+    public List<Message> getMessagesPage(Integer postedBy, int after, int before, int limit, boolean descending) {
+        List<Message> messages = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM message WHERE " + (postedBy != null ? "posted_by = ? AND " : "")
+                    + "message_id > ? AND message_id < ? ORDER BY message_id " + (descending ? "DESC" : "ASC")
+                    + " LIMIT ?;";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            int index = 1;
+            if (postedBy != null)
+                preparedStatement.setInt(index++, postedBy);
+            preparedStatement.setInt(index++, after);
+            preparedStatement.setInt(index++, before);
+            preparedStatement.setInt(index, limit);
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                Message message = new Message(rs.getInt("message_id"),
+                                              rs.getInt("posted_by"),
+                                              rs.getString("message_text"),
+                                              rs.getLong("time_posted_epoch"));
+                messages.add(message);
+            }
+        }
+        catch (SQLException e) {
+            GET_MESSAGES_PAGE.error();
+            System.out.println(e.getMessage());
+        }
+        finally {
+            GET_MESSAGES_PAGE.record(start);
+        }
         return messages;
     }
 
+    /**
+     * Retrieve one keyset page of the messages posted in a time range, optionally restricted to one poster. Rows are
+     * ordered by (time_posted_epoch, message_id) and located by seeking on the index over those columns, so only the
+     * rows that are returned are read, however large the table or the range.
+     * @param postedBy account id to filter by, or null for all accounts
+     * @param since only messages with a time_posted_epoch greater than or equal to this
+     * @param afterId among the messages posted at exactly since, only those with a greater message_id
+     * @param until only messages with a time_posted_epoch less than this
+     * @param limit maximum number of rows to return
+     * @return up to limit messages, ordered by time_posted_epoch and then message_id
+     */
+    public List<Message> getMessagesByTime(Integer postedBy, long since, int afterId, long until, int limit) {
+        List<Message> messages = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            // posted_by is fixed, so ordering by it changes nothing, but it leads H2 to the (posted_by,
+            // time_posted_epoch, message_id) index, which returns the rows in order, rather than the posted_by one
+            String sql = "SELECT * FROM message WHERE " + (postedBy != null ? "posted_by = ? AND " : "")
+                    + "time_posted_epoch >= ? AND time_posted_epoch < ? AND (time_posted_epoch > ? OR message_id > ?) "
+                    + "ORDER BY " + (postedBy != null ? "posted_by, " : "") + "time_posted_epoch, message_id LIMIT ?;";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            int index = 1;
+            if (postedBy != null)
+                preparedStatement.setInt(index++, postedBy);
+            preparedStatement.setLong(index++, since);
+            preparedStatement.setLong(index++, until);
+            preparedStatement.setLong(index++, since);
+            preparedStatement.setInt(index++, afterId);
+            preparedStatement.setInt(index, limit);
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                Message message = new Message(rs.getInt("message_id"),
+                                              rs.getInt("posted_by"),
+                                              rs.getString("message_text"),
+                                              rs.getLong("time_posted_epoch"));
+                messages.add(message);
+            }
+        }
+        catch (SQLException e) {
+            GET_MESSAGES_BY_TIME.error();
+            System.out.println(e.getMessage());
+        }
+        finally {
+            GET_MESSAGES_BY_TIME.record(start);
+        }
+        return messages;
+    }
+
+    /**
+     * Stream messages from the Message table, optionally restricted to one poster, handing each row to the visitor as
+     * soon as it is read. The query runs lazily so H2 does not materialize the result, which keeps memory constant no
+     * matter how many rows match.
+     * @param postedBy account id to filter by, or null for all accounts
+     * @param visitor receives each message in ascending message_id order
+     * @throws IOException if the visitor fails, e.g. because the client disconnected, or the query fails part way, so
+     *                     a caller never mistakes the rows visited so far for the whole result
+     */
+    public void streamMessages(Integer postedBy, MessageVisitor visitor) throws IOException {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET LAZY_QUERY_EXECUTION TRUE;");
+            }
+            try {
+                String sql = "SELECT * FROM message " + (postedBy != null ? "WHERE posted_by = ? " : "")
+                        + "ORDER BY message_id;";
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+                preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+                if (postedBy != null)
+                    preparedStatement.setInt(1, postedBy);
+                ResultSet rs = preparedStatement.executeQuery();
+                while (rs.next()) {
+                    visitor.visit(new Message(rs.getInt("message_id"),
+                                              rs.getInt("posted_by"),
+                                              rs.getString("message_text"),
+                                              rs.getLong("time_posted_epoch")));
+                }
+                rs.close();
+            }
+            finally {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET LAZY_QUERY_EXECUTION FALSE;");
+                }
+            }
+        }
+        catch (SQLException e) {
+            STREAM_MESSAGES.error();
+            System.out.println(e.getMessage());
+            throw new IOException("Streaming messages failed", e);
+        }
+        finally {
+            STREAM_MESSAGES.record(start);
+        }
+    }
+
     /**
      * Retrieve message from the Message table by message_id
      * @param id message id
      * @return message
      */
     public Message getMessageById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
             String sql = "SELECT * FROM message WHERE message_id = ?;";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, id);
@@ -93,46 +311,91 @@ public class MessageDAO {
             }
         }
         catch (SQLException e) {
+            GET_MESSAGE_BY_ID.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            GET_MESSAGE_BY_ID.record(start);
+        }
         return null;
     }
 
     /**
-     * Delete message from Message table by message_id
+     * Delete message from Message table by message_id. The deleted row is read back from H2's OLD TABLE delta in the
+     * same statement.
      * @param id message id
+     * @return deleted message, null if no message has that id or on error
      */
-    public void deleteMessageById(int id) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "DELETE FROM message WHERE message_id = ?;";
+    public Message deleteMessageById(int id) {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM OLD TABLE (DELETE FROM message WHERE message_id = ?);";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, id);
-            preparedStatement.executeUpdate();
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                Message message = new Message(rs.getInt("message_id"),
+                                              rs.getInt("posted_by"),
+                                              rs.getString("message_text"),
+                                              rs.getLong("time_posted_epoch"));
+                return message;
+            }
         }
         catch (SQLException e) {
+            DELETE_MESSAGE_BY_ID.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            DELETE_MESSAGE_BY_ID.record(start);
+        }
+        return null;
     }
 
     /**
-     * Update message on Message table by message_id
+     * Update message on Message table by message_id.
      * @param id message id
      * @param newMessageText new message text
+     * @return updated message, null if no message has that id or on error
      */
     public Message updateMessageById(int id, String newMessageText) {
-        Connection connection = ConnectionUtil.getConnection();
-        try {
-            String sql = "UPDATE message SET message_text = ? WHERE message_id = ?;";
+        Message previous = replaceMessageText(id, newMessageText);
+        if (previous == null)
+            return null;
+        return new Message(previous.getMessage_id(), previous.getPosted_by(), newMessageText,
+                previous.getTime_posted_epoch());
+    }
+
+    /**
+     * Update message on Message table by message_id and return the row as it was before. The old row is read back
+     * from H2's OLD TABLE delta in the same statement, so no second query is needed; the updated message is the old
+     * one with the new text.
+     * @param id message id
+     * @param newMessageText new message text
+     * @return the message before the update, null if no message has that id or on error
+     */
+    public Message replaceMessageText(int id, String newMessageText) {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            String sql = "SELECT * FROM OLD TABLE (UPDATE message SET message_text = ? WHERE message_id = ?);";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setString(1, newMessageText);
             preparedStatement.setInt(2, id);
-            preparedStatement.executeUpdate();
-            return getMessageById(id);
+            ResultSet rs = preparedStatement.executeQuery();
+            while (rs.next()) {
+                Message message = new Message(rs.getInt("message_id"),
+                                              rs.getInt("posted_by"),
+                                              rs.getString("message_text"),
+                                              rs.getLong("time_posted_epoch"));
+                return message;
+            }
         }
         catch (SQLException e) {
+            UPDATE_MESSAGE_BY_ID.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            UPDATE_MESSAGE_BY_ID.record(start);
+        }
         return null;
     }
 
@@ -141,9 +404,9 @@ public class MessageDAO {
      * @return all messages of user
      */
     public List<Message> getAllMessagesByUserId(int id) {
-        Connection connection = ConnectionUtil.getConnection();
         List<Message> messages = new ArrayList<>();
-        try {
+        long start = System.nanoTime();
+        try (Connection connection = ConnectionUtil.getConnection()) {
             String sql = "SELECT * FROM message WHERE posted_by = ?;";
             PreparedStatement preparedStatement = connection.prepareStatement(sql);
             preparedStatement.setInt(1, id);
@@ -157,8 +420,12 @@ public class MessageDAO {
             }
         }
         catch (SQLException e) {
+            GET_ALL_MESSAGES_BY_USER_ID.error();
             System.out.println(e.getMessage());
         }
+        finally {
+            GET_ALL_MESSAGES_BY_USER_ID.record(start);
+        }
         return messages;
     }
 }
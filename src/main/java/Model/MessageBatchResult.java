@@ -0,0 +1,62 @@
+package Model;
+
+/**
+ * This is a class that models the outcome of one message in a POST /messages/batch request.
+ */
+public class MessageBatchResult {
+    /**
+     * Position of the message in the request array.
+     */
+    public int index;
+    /**
+     * HTTP-style status for this message: 200 if it was persisted, 400 if it failed validation, 500 if the batch
+     * could not be written.
+     */
+    public int status;
+    /**
+     * The persisted message including its generated message_id, or null if it was not persisted.
+     */
+    public Message message;
+
+    public MessageBatchResult() {
+    }
+
+    public MessageBatchResult(int index, int status, Message message) {
+        this.index = index;
+        this.status = status;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatchResult{" +
+                "index=" + index +
+                ", status=" + status +
+                ", message=" + message +
+                '}';
+    }
+}
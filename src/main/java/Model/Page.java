@@ -0,0 +1,65 @@
+package Model;
+
+import java.util.List;
+
+/**
+ * This is a class that models one page of a keyset-paginated listing. Items are ordered by ascending id; the cursors
+ * are ids that can be passed back as the "after" or "before" query parameters to fetch the neighbouring pages.
+ * @param <T> type of item on the page
+ */
+public class Page<T> {
+    /**
+     * The items on this page, in ascending id order.
+     */
+    public List<T> items;
+    /**
+     * Cursor for the following page (pass as "after"), or null if this is the last page.
+     */
+    public Integer next_cursor;
+    /**
+     * Cursor for the preceding page (pass as "before"), or null if this is the first page.
+     */
+    public Integer prev_cursor;
+
+    public Page() {
+    }
+
+    public Page(List<T> items, Integer next_cursor, Integer prev_cursor) {
+        this.items = items;
+        this.next_cursor = next_cursor;
+        this.prev_cursor = prev_cursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    public Integer getNext_cursor() {
+        return next_cursor;
+    }
+
+    public void setNext_cursor(Integer next_cursor) {
+        this.next_cursor = next_cursor;
+    }
+
+    public Integer getPrev_cursor() {
+        return prev_cursor;
+    }
+
+    public void setPrev_cursor(Integer prev_cursor) {
+        this.prev_cursor = prev_cursor;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{" +
+                "items=" + items +
+                ", next_cursor=" + next_cursor +
+                ", prev_cursor=" + prev_cursor +
+                '}';
+    }
+}
@@ -2,9 +2,20 @@ package Service;
 
 import Model.Account;
 import DAO.AccountDAO;
+import Util.DatabaseExecutor;
+import Util.PasswordHashExecutor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 public class AccountService {
+    /**
+     * PBKDF2 iterations for new password hashes, set with socialmedia.password.iterations
+     */
+    private static final int PASSWORD_ITERATIONS = Integer.getInteger("socialmedia.password.iterations", 210_000);
+
     private AccountDAO accountDAO;
+    private PasswordHasher passwordHasher = new PasswordHasher(PASSWORD_ITERATIONS);
 
     public AccountService() {
         this.accountDAO = new AccountDAO();
@@ -23,14 +34,29 @@ public class AccountService {
      * @return account if it was successfully persisted, null if it was not successfully persisted
      */
     public Account registerNewAccount(Account account) {
+        return submitNewAccount(account).join();
+    }
+
+    /**
+     * Validate a new account like registerNewAccount, hash its password on the PasswordHashExecutor and then insert it
+     * on the DatabaseExecutor. Only the salted hash is stored; the returned account carries the password as it was
+     * given.
+     * @param account an account object
+     * @return future of the account if it was successfully persisted, or of null if it was not
+     * @throws RejectedExecutionException if the password hash queue is full
+     */
+    public CompletableFuture<Account> submitNewAccount(Account account) {
         if (account.getUsername().isBlank())
-            return null;
+            return CompletableFuture.completedFuture(null);
         if (account.getPassword().isBlank() || account.getPassword().length() < 4)
-            return null;
-        if (accountDAO.getAccountByUsername(account.getUsername()) != null) {
-            return null;
-        }
-        else return accountDAO.addAccount(account);
+            return CompletableFuture.completedFuture(null);
+        if (accountDAO.getAccountByUsername(account.getUsername()) != null)
+            return CompletableFuture.completedFuture(null);
+        return PasswordHashExecutor.supply(() -> passwordHasher.hash(account.getPassword()))
+                .thenCompose(hash -> DatabaseExecutor.supply(() ->
+                        accountDAO.addAccount(new Account(account.getUsername(), hash))))
+                .thenApply(newAccount -> newAccount == null ? null
+                        : new Account(newAccount.getAccount_id(), newAccount.getUsername(), account.getPassword()));
     }
 
     /**
@@ -41,11 +67,40 @@ public class AccountService {
      * @return account if it was successfully persisted, null if it was not successfully persisted
      */
     public Account verifyLogin(Account account) {
+        return submitLogin(account).join();
+    }
+
+    /**
+     * Verify a login attempt like verifyLogin, checking the password on the PasswordHashExecutor. A password stored in
+     * plain text or with fewer iterations than configured is rehashed after a successful login.
+     * @param account an account object
+     * @return future of the account, carrying the password as it was given, or of null if the login failed
+     * @throws RejectedExecutionException if the password hash queue is full
+     */
+    public CompletableFuture<Account> submitLogin(Account account) {
+        if (account.getUsername() == null || account.getPassword() == null)
+            return CompletableFuture.completedFuture(null);
         Account storedAccount = accountDAO.getAccountByUsername(account.getUsername());
-        if (storedAccount == null)
-            return null;
-        else if (account.getPassword().equals(storedAccount.getPassword()))
-            return storedAccount;
-        else return null;
+        String stored = storedAccount == null ? null : storedAccount.getPassword();
+        return PasswordHashExecutor.supply(() -> {
+            if (!passwordHasher.verify(account.getPassword(), stored))
+                return null;
+            if (passwordHasher.needsRehash(stored))
+                upgradePassword(storedAccount, passwordHasher.hash(account.getPassword()));
+            return new Account(storedAccount.getAccount_id(), storedAccount.getUsername(), account.getPassword());
+        });
+    }
+
+    /**
+     * Store a stronger hash in the background; if the database is too busy the upgrade is retried on a later login
+     */
+    private void upgradePassword(Account storedAccount, String hash) {
+        try {
+            DatabaseExecutor.supply(() -> accountDAO.updatePassword(
+                    new Account(storedAccount.getAccount_id(), storedAccount.getUsername(), hash)));
+        }
+        catch (RejectedExecutionException e) {
+            System.out.println("Deferred password upgrade for account " + storedAccount.getAccount_id());
+        }
     }
 }
@@ -0,0 +1,291 @@
+package Service;
+
+import Model.Message;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * A size-bounded, in-process cache of messages by message_id.
+ *
+ * The cache is bounded by an estimate of the bytes its messages occupy. Eviction is frequency aware (TinyLFU): a small
+ * count-min sketch records how often each id is requested, and when the cache is full a new message is only admitted
+ * if it has been requested more often than the entry it would evict. One-off reads of cold messages therefore cannot
+ * flush the hot set. Victims are picked in CLOCK order: entries are queued as they are added and a read only sets a
+ * flag on its entry, which buys it one more pass of the clock hand before it can be evicted.
+ *
+ * Reads never block: the entries are in a ConcurrentHashMap and the sketch's counters are updated with CAS. The lock
+ * is only taken to admit a message and evict others to make room, which also serializes the clock.
+ */
+public class MessageCache {
+    /**
+     * Rough per-entry overhead of a cached message: the Message object, its String and the map node.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 120;
+
+    private final long maxBytes;
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>(256);
+    private final FrequencySketch sketch;
+    private final AtomicLong currentBytes = new AtomicLong();
+    /**
+     * Entries in the order the clock hand visits them; guarded by this. Entries that were invalidated or replaced stay
+     * here until the hand reaches them or the queue is compacted.
+     */
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+
+    /**
+     * Bumped on every invalidation. A load only populates the cache if no invalidation happened while it was reading
+     * from the database, so a slow read can never re-insert a row that was updated or deleted in the meantime.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * A cached message, its weight and its CLOCK reference bit.
+     */
+    private static class Entry {
+        final int id;
+        final Message message;
+        final long weight;
+        volatile boolean referenced;
+
+        Entry(int id, Message message, long weight) {
+            this.id = id;
+            this.message = message;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param maxBytes approximate memory budget for cached messages
+     */
+    public MessageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 22, Math.max(1024, maxBytes / ENTRY_OVERHEAD_BYTES)));
+    }
+
+    /**
+     * Return the cached message, or load it with the loader on a miss and cache the result.
+     * @param id message id
+     * @param loader reads the message from the database; may return null
+     * @return the message, or null if the loader found none
+     */
+    public Message get(int id, IntFunction<Message> loader) {
+        sketch.increment(id);
+        Entry entry = entries.get(id);
+        if (entry != null) {
+            if (!entry.referenced)
+                entry.referenced = true;
+            hits.increment();
+            return entry.message;
+        }
+        misses.increment();
+        long stamp = invalidations.get();
+        Message message = loader.apply(id);
+        if (message != null)
+            put(message, stamp);
+        return message;
+    }
+
+    /**
+     * Offer a freshly created message to the cache.
+     * @param message message with its generated id
+     */
+    public void put(Message message) {
+        put(message, invalidations.get());
+    }
+
+    /**
+     * Drop a message after it has been updated or deleted.
+     * @param id message id
+     */
+    public void invalidate(int id) {
+        invalidations.incrementAndGet();
+        Entry removed = entries.remove(id);
+        if (removed != null)
+            currentBytes.addAndGet(-removed.weight);
+    }
+
+    private synchronized void put(Message message, long stamp) {
+        if (invalidations.get() != stamp)
+            return;
+        int id = message.getMessage_id();
+        long weight = weigh(message);
+        if (weight > maxBytes)
+            return;
+        Entry entry = new Entry(id, message, weight);
+        if (currentBytes.get() + weight > maxBytes) {
+            Entry victim = nextVictim();
+            // a message already cached is refreshed without an admission check
+            if (victim != null && !entries.containsKey(id) && sketch.frequency(victim.id) > sketch.frequency(id)) {
+                clock.addFirst(victim);
+                rejections.increment();
+                return;
+            }
+            while (victim != null) {
+                if (entries.remove(victim.id, victim)) {
+                    currentBytes.addAndGet(-victim.weight);
+                    evictions.increment();
+                }
+                if (currentBytes.get() + weight <= maxBytes)
+                    break;
+                victim = nextVictim();
+            }
+        }
+        Entry previous = entries.put(id, entry);
+        currentBytes.addAndGet(weight - (previous == null ? 0 : previous.weight));
+        clock.addLast(entry);
+        // an invalidation that ran after the stamp check may have missed this entry, so it is withdrawn here
+        if (invalidations.get() != stamp && entries.remove(id, entry))
+            currentBytes.addAndGet(-weight);
+        if (clock.size() > 2 * entries.size() + 16)
+            clock.removeIf(queued -> entries.get(queued.id) != queued);
+    }
+
+    /**
+     * Move the clock hand to the next entry that has not been read since the hand last passed it, clearing the flags of
+     * the entries it passes. Stale queue slots are dropped on the way.
+     * @return the entry, taken off the clock, or null if the cache is empty
+     */
+    private Entry nextVictim() {
+        Entry entry;
+        while ((entry = clock.pollFirst()) != null) {
+            if (entries.get(entry.id) != entry)
+                continue;
+            if (!entry.referenced)
+                return entry;
+            entry.referenced = false;
+            clock.addLast(entry);
+        }
+        return null;
+    }
+
+    private static long weigh(Message message) {
+        String text = message.getMessage_text();
+        return ENTRY_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+    }
+
+    /**
+     * @return a point-in-time snapshot of hit, miss and size counters
+     */
+    public CacheStats getStats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), rejections.sum(), entries.size(),
+                currentBytes.get(), maxBytes);
+    }
+
+    /**
+     * Immutable snapshot of cache statistics.
+     */
+    public static class CacheStats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long rejections;
+        public final int size;
+        public final long bytes;
+        public final long maxBytes;
+
+        CacheStats(long hits, long misses, long evictions, long rejections, int size, long bytes, long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.rejections = rejections;
+            this.size = size;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+        }
+
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", hitRate=" + hitRate() +
+                    ", evictions=" + evictions +
+                    ", rejections=" + rejections +
+                    ", size=" + size +
+                    ", bytes=" + bytes +
+                    ", maxBytes=" + maxBytes +
+                    '}';
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters used to estimate how often an id has been requested. Counters are halved
+     * periodically so the estimate follows the current workload rather than all-time popularity. Sixteen counters are
+     * packed into each long and updated with CAS, so concurrent readers never wait on each other; a halving that races
+     * an increment may lose it, which only blurs an estimate.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        private final AtomicLongArray counters;
+        private final int width;
+        private final int mask;
+        private final int resetAfter;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(int expectedEntries) {
+            this.width = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+            this.counters = new AtomicLongArray(DEPTH * width / 16);
+            this.mask = width - 1;
+            this.resetAfter = width * 10;
+        }
+
+        void increment(int id) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int counter = row * width + index(id, row);
+                int slot = counter >>> 4;
+                int shift = (counter & 15) << 2;
+                long current;
+                do {
+                    current = counters.get(slot);
+                    if ((current >>> shift & 15) == 15)
+                        break;
+                } while (!counters.compareAndSet(slot, current, current + (1L << shift)));
+                added |= (current >>> shift & 15) != 15;
+            }
+            if (added && additions.incrementAndGet() == resetAfter)
+                reset();
+        }
+
+        int frequency(int id) {
+            int min = Integer.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                int counter = row * width + index(id, row);
+                min = Math.min(min, (int) (counters.get(counter >>> 4) >>> ((counter & 15) << 2) & 15));
+            }
+            return min;
+        }
+
+        private int index(int id, int row) {
+            int hash = id * SEEDS[row];
+            hash ^= hash >>> 16;
+            return hash & mask;
+        }
+
+        /**
+         * Halve every counter. Only the increment that reaches resetAfter gets here, so resets do not overlap.
+         */
+        private void reset() {
+            for (int i = 0; i < counters.length(); i++)
+                counters.getAndUpdate(i, packed -> packed >>> 1 & 0x7777777777777777L);
+            additions.addAndGet(-resetAfter / 2);
+        }
+    }
+}
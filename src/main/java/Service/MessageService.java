@@ -1,23 +1,107 @@
 package Service;
 
 import Model.Message;
+import Model.MessageBatchResult;
+import Model.Page;
 import DAO.MessageDAO;
 import DAO.AccountDAO;
+import Util.ConcurrentBitSet;
+import Util.DatabaseExecutor;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class MessageService {
+    /**
+     * Memory budget of the message cache, set with socialmedia.messageCache.maxBytes
+     */
+    private static final long MESSAGE_CACHE_BYTES = Long.getLong("socialmedia.messageCache.maxBytes", 16L << 20);
+    /**
+     * Most recent messages kept per account timeline, set with socialmedia.timeline.maxMessages
+     */
+    private static final int TIMELINE_MESSAGES = Integer.getInteger("socialmedia.timeline.maxMessages", 500);
+    /**
+     * Account timelines kept in memory, set with socialmedia.timeline.maxAccounts
+     */
+    private static final int TIMELINE_ACCOUNTS = Integer.getInteger("socialmedia.timeline.maxAccounts", 10000);
+    /**
+     * Page size used when a cursor is given without a limit
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    /**
+     * Largest page a caller may request
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+    /**
+     * Largest number of messages accepted in one batch, set with socialmedia.batch.maxSize
+     */
+    public static final int MAX_BATCH_SIZE = Integer.getInteger("socialmedia.batch.maxSize", 1000);
+    /**
+     * Most single-message inserts coalesced into one transaction, set with socialmedia.groupCommit.maxBatchSize
+     */
+    private static final int GROUP_COMMIT_BATCH_SIZE = Integer.getInteger("socialmedia.groupCommit.maxBatchSize", 256);
+    /**
+     * How long a group commit waits for more inserts after the first, set with socialmedia.groupCommit.windowMicros
+     */
+    private static final long GROUP_COMMIT_WINDOW_MICROS = Long.getLong("socialmedia.groupCommit.windowMicros", 1000);
+    /**
+     * Version counters kept for messages and for account timelines each, set with socialmedia.versions.stripes
+     */
+    private static final int VERSION_STRIPES = Integer.getInteger("socialmedia.versions.stripes", 1 << 14);
+    /**
+     * How far back the in-memory time-sorted segment reaches, set with socialmedia.recent.windowSeconds
+     */
+    private static final long RECENT_WINDOW_SECONDS = Long.getLong("socialmedia.recent.windowSeconds", 86400);
+    /**
+     * Most messages kept in the time-sorted segment, set with socialmedia.recent.maxMessages
+     */
+    private static final int RECENT_MESSAGES = Integer.getInteger("socialmedia.recent.maxMessages", 100_000);
+
     private MessageDAO messageDAO;
     private AccountDAO accountDAO;
+    private MessageCache messageCache = new MessageCache(MESSAGE_CACHE_BYTES);
+    private TimelineStore timelines = new TimelineStore(TIMELINE_MESSAGES, TIMELINE_ACCOUNTS);
+    private MessageWriteBatcher writeBatcher;
+    private VersionCounters messageVersions = new VersionCounters(VERSION_STRIPES);
+    private VersionCounters timelineVersions = new VersionCounters(VERSION_STRIPES);
+    private SearchIndex searchIndex = new SearchIndex();
+    /**
+     * Striped by message_id. An update or delete holds its stripe from its statement until the search index has been
+     * changed, and a new message holds it while it is indexed, so the index sees the changes to one message in the
+     * order the database applied them.
+     */
+    private final Object[] indexOrderLocks = new Object[256];
+    /**
+     * Ids of the messages that are in the search index and caches, set when a created message is indexed and for every
+     * message stored at startup. A new message is committed before its creator's continuation indexes it, so an update
+     * or delete can reach it first.
+     */
+    private final ConcurrentBitSet indexedIds = new ConcurrentBitSet();
+    /**
+     * Ids an update or delete found before they were indexed. Such a change leaves the search index alone, and the
+     * message is later indexed in whatever state the database holds then, if any, instead of as it was created.
+     */
+    private final ConcurrentBitSet changedBeforeIndexed = new ConcurrentBitSet();
+    private RecentMessages recentMessages = new RecentMessages(RECENT_WINDOW_SECONDS, RECENT_MESSAGES);
 
     public MessageService() {
-        this.messageDAO = new MessageDAO();
-        this.accountDAO = new AccountDAO();
+        this(new MessageDAO(), new AccountDAO());
     }
 
     public MessageService(MessageDAO messageDAO, AccountDAO accountDAO) {
         this.messageDAO = messageDAO;
         this.accountDAO = accountDAO;
+        this.writeBatcher = new MessageWriteBatcher(messageDAO, GROUP_COMMIT_BATCH_SIZE, GROUP_COMMIT_WINDOW_MICROS,
+                DatabaseExecutor::execute);
+        for (int i = 0; i < indexOrderLocks.length; i++)
+            indexOrderLocks[i] = new Object();
+        buildSearchIndex();
+        recentMessages.load((since, afterId, limit) ->
+                messageDAO.getMessagesByTime(null, since, afterId, Long.MAX_VALUE, limit));
     }
     
     /**
@@ -26,16 +110,99 @@ public class MessageService {
      * Message text must not be longer than 255 characters
      * Account posting the message must exist
      * @param message a message object
+     * Blocks until the group commit; do not call it on a DatabaseExecutor thread, which is where the result arrives.
      * @return message if it was successfully persisted, null if it was not successfully persisted
      */
     public Message createNewMessage(Message message) {
-        if (message.getMessage_text().isBlank())
-            return null;
-        if (message.getMessage_text().length() > 255)
-            return null;
-        if (accountDAO.getAccountById(message.getPosted_by()) == null)
-            return null;
-        else return messageDAO.newMessage(message);
+        return submitNewMessage(message).join();
+    }
+
+    /**
+     * Validate a new message like createNewMessage and queue it for the next group commit, so concurrent posts share
+     * one transaction. The returned future completes only once the message's transaction has committed.
+     * @param message a message object
+     * @return future of the message if it was successfully persisted, or of null if it was not
+     */
+    public CompletableFuture<Message> submitNewMessage(Message message) {
+        return submitNewMessage(message, false);
+    }
+
+    /**
+     * Like submitNewMessage(message), for callers that have already established that the poster exists, e.g. from a
+     * verified session token, so the account lookup is skipped.
+     * @param message a message object
+     * @param posterVerified true if posted_by is known to be an existing account
+     * @return future of the message if it was successfully persisted, or of null if it was not
+     */
+    public CompletableFuture<Message> submitNewMessage(Message message, boolean posterVerified) {
+        if (!isValidMessageText(message.getMessage_text()))
+            return CompletableFuture.completedFuture(null);
+        if (!posterVerified && !accountDAO.accountExists(message.getPosted_by()))
+            return CompletableFuture.completedFuture(null);
+        return writeBatcher.submit(message).thenApply(newMessage -> {
+            if (newMessage != null)
+                indexNewMessage(newMessage);
+            return newMessage;
+        });
+    }
+
+    /**
+     * @return number of group commits written for single-message posts
+     */
+    public long getGroupCommitCount() {
+        return writeBatcher.getBatchCount();
+    }
+
+    /**
+     * @return number of single-message posts written by group commits
+     */
+    public long getGroupCommitMessageCount() {
+        return writeBatcher.getMessageCount();
+    }
+
+    /**
+     * Use the messageDAO to create several messages in one transaction
+     * Each message is validated with the same rules as createNewMessage; posters are checked together
+     * @param messages message objects
+     * @return one result per message, in request order, carrying the persisted message or the reason it was not
+     */
+    public List<MessageBatchResult> createNewMessages(List<Message> messages) {
+        List<Integer> posters = new ArrayList<>();
+        for (Message message : messages) {
+            if (message != null && isValidMessageText(message.getMessage_text()))
+                posters.add(message.getPosted_by());
+        }
+        Set<Integer> existingPosters = accountDAO.existingAccountIds(posters);
+
+        List<MessageBatchResult> results = new ArrayList<>(messages.size());
+        List<Message> accepted = new ArrayList<>();
+        List<MessageBatchResult> acceptedResults = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            MessageBatchResult result = new MessageBatchResult(i, 400, null);
+            if (message != null && isValidMessageText(message.getMessage_text())
+                    && existingPosters.contains(message.getPosted_by())) {
+                accepted.add(message);
+                acceptedResults.add(result);
+            }
+            results.add(result);
+        }
+        if (accepted.isEmpty())
+            return results;
+
+        List<Message> newMessages = messageDAO.newMessages(accepted);
+        for (int i = 0; i < acceptedResults.size(); i++) {
+            MessageBatchResult result = acceptedResults.get(i);
+            if (newMessages == null) {
+                result.setStatus(500);
+                continue;
+            }
+            Message newMessage = newMessages.get(i);
+            result.setStatus(200);
+            result.setMessage(newMessage);
+            indexNewMessage(newMessage);
+        }
+        return results;
     }
 
     /**
@@ -47,27 +214,164 @@ public class MessageService {
     }
 
     /**
-     * Use the messageDAO to retrieve message by id
+     * Use the messageDAO to retrieve one keyset page of all messages
+     * @param after cursor to page forward from, or null
+     * @param before cursor to page backward from, or null
+     * @param limit page size
+     * @return page of messages with cursors for the neighbouring pages
+     */
+    public Page<Message> getMessagesPage(Integer after, Integer before, int limit) {
+        return getPage(null, after, before, limit);
+    }
+
+    /**
+     * Retrieve one page of the messages posted in a time range, optionally of one user. Listings of all messages that
+     * start inside the recent segment are served from memory; the rest use the messageDAO, which seeks on the
+     * time_posted_epoch indexes. Either way only the rows on the page are read.
+     * @param postedBy user id, or null for all users
+     * @param since only messages with a time_posted_epoch at or after this, or null
+     * @param after among the messages posted at exactly since, only those with a greater message_id, or null
+     * @param until only messages with a time_posted_epoch before this, or null
+     * @param limit page size
+     * @return page of messages ordered by time_posted_epoch and then message_id, with the last message's id as the
+     *         next cursor if there are more
+     */
+    public Page<Message> getMessagesByTime(Integer postedBy, Long since, Integer after, Long until, int limit) {
+        long low = since == null ? Long.MIN_VALUE : since;
+        int afterId = after == null ? Integer.MIN_VALUE : after;
+        long high = until == null ? Long.MAX_VALUE : until;
+        List<Message> rows = null;
+        if (postedBy == null)
+            rows = recentMessages.rows(low, afterId, high, limit + 1);
+        if (rows == null)
+            rows = messageDAO.getMessagesByTime(postedBy, low, afterId, high, limit + 1);
+        boolean more = rows.size() > limit;
+        List<Message> items = new ArrayList<>(more ? rows.subList(0, limit) : rows);
+        return new Page<>(items, more ? items.get(items.size() - 1).getMessage_id() : null, null);
+    }
+
+    /**
+     * Append the metrics of the recent segment in Prometheus text format.
+     * @param out destination
+     */
+    public void writeRecentMessagesMetrics(StringBuilder out) {
+        recentMessages.writeTo(out);
+    }
+
+    /**
+     * @return hit, miss and size statistics of the message cache
+     */
+    public MessageCache.CacheStats getMessageCacheStats() {
+        return messageCache.getStats();
+    }
+
+    /**
+     * The version of a message changes whenever the message is created, updated or deleted. Read it before reading
+     * the message, so the version a caller pairs with the message is never newer than the message itself.
+     * @param id message id
+     * @return current version of the message
+     */
+    public long getMessageVersion(int id) {
+        return messageVersions.get(id);
+    }
+
+    /**
+     * The version of a timeline changes whenever a message of the account is created, updated or deleted.
+     * @param accountId account id
+     * @return current version of the account's messages
+     */
+    public long getTimelineVersion(int accountId) {
+        return timelineVersions.get(accountId);
+    }
+
+    /**
+     * Search message text with the in-memory index. Every word of the query must appear in a message for it to match,
+     * ignoring case and punctuation.
+     * @param query words to look for
+     * @param after cursor to page forward from, or null
+     * @param limit page size
+     * @return page of matching messages in ascending message_id order, with a cursor for the next page
+     */
+    public Page<Message> searchMessages(String query, Integer after, int limit) {
+        Set<String> terms = SearchIndex.tokenize(query);
+        SearchIndex.IdIterator ids = searchIndex.search(terms, after == null ? 0 : after);
+        List<Message> items = new ArrayList<>();
+        boolean more = false;
+        for (int id = ids.next(); id >= 0; id = ids.next()) {
+            Message message = getMessageById(id);
+            // the index can briefly lag a concurrent update or delete, so check the message still matches
+            if (message == null || !SearchIndex.tokenize(message.getMessage_text()).containsAll(terms))
+                continue;
+            if (items.size() == limit) {
+                more = true;
+                break;
+            }
+            items.add(message);
+        }
+        return new Page<>(items, more ? items.get(items.size() - 1).getMessage_id() : null, null);
+    }
+
+    /**
+     * @return number of distinct words in the search index
+     */
+    public int getSearchTermCount() {
+        return searchIndex.getTermCount();
+    }
+
+    /**
+     * @return size of the search index's encoded postings
+     */
+    public long getSearchPostingsBytes() {
+        return searchIndex.getPostingsBytes();
+    }
+
+    /**
+     * Use the messageDAO to stream all messages without collecting them into a list
+     * @param visitor receives each message in ascending message_id order
+     * @throws IOException if the visitor or the query fails
+     */
+    public void streamAllMessages(MessageDAO.MessageVisitor visitor) throws IOException {
+        messageDAO.streamMessages(null, visitor);
+    }
+
+    /**
+     * Use the messageDAO to stream all messages of a user by user id without collecting them into a list
+     * @param id user id
+     * @param visitor receives each message in ascending message_id order
+     * @throws IOException if the visitor or the query fails
+     */
+    public void streamMessagesByUserId(int id, MessageDAO.MessageVisitor visitor) throws IOException {
+        messageDAO.streamMessages(id, visitor);
+    }
+
+    /**
+     * Retrieve message by id from the message cache, using the messageDAO on a miss
      * @param id message id
      * @return message
      */
     public Message getMessageById(int id) {
-        return messageDAO.getMessageById(id);
+        return messageCache.get(id, messageDAO::getMessageById);
     }
 
     /**
      * Use the messageDAO to delete message by id
      * @param id message id
-     * @return deleted message
+     * @return deleted message, null if it did not exist
      */
     public Message deleteMessageById(int id) {
-        Message message = messageDAO.getMessageById(id);
-        if (message == null)
-            return null;
-        else {
-            messageDAO.deleteMessageById(id);
-            return message;
+        Message message;
+        synchronized (indexOrderLock(id)) {
+            message = messageDAO.deleteMessageById(id);
+            if (message != null)
+                applyIndexChange(id, () -> searchIndex.remove(id, message.getMessage_text()));
         }
+        messageCache.invalidate(id);
+        if (message != null) {
+            timelines.onDelete(message);
+            recentMessages.onDelete(message);
+            bumpVersions(message);
+        }
+        return message;
     }
 
     /**
@@ -75,26 +379,154 @@ public class MessageService {
      * Message id must already exist
      * Message text must not be blank
      * Message text must not be longer than 255 characters
+     * The old text, needed to re-index the message for search, comes back from the same UPDATE statement.
      * @param id message id
      * @param message message to be updated
      * @return updated message
      */
     public Message updateMessageById(int id, String newMessageText) {
-        if (newMessageText.isBlank())
-            return null;
-        if (newMessageText.length() > 255)
+        if (!isValidMessageText(newMessageText))
             return null;
-        if (messageDAO.getMessageById(id) == null)
+        Message previous;
+        synchronized (indexOrderLock(id)) {
+            previous = messageDAO.replaceMessageText(id, newMessageText);
+            if (previous != null)
+                applyIndexChange(id, () -> searchIndex.update(id, previous.getMessage_text(), newMessageText));
+        }
+        messageCache.invalidate(id);
+        if (previous == null)
             return null;
-        else return messageDAO.updateMessageById(id, newMessageText);
+        Message message = new Message(id, previous.getPosted_by(), newMessageText, previous.getTime_posted_epoch());
+        timelines.onUpdate(message);
+        recentMessages.onUpdate(message);
+        bumpVersions(message);
+        return message;
     }
 
     /**
-     * Use the messageDAO to retrieve all messages of a user by user id
+     * Retrieve all messages of a user by user id from the user's timeline, using the messageDAO if the user has more
+     * messages than a timeline holds
      * @param id user id
      * @return all messages of user
      */
     public List<Message> getAllMessagesByUserId(int id) {
+        List<Message> messages = timelines.rows(id, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, false,
+                this::loadTimeline);
+        if (messages != null)
+            return messages;
         return messageDAO.getAllMessagesByUserId(id);
     }
+
+    /**
+     * Use the messageDAO to retrieve one keyset page of the messages of a user by user id
+     * @param id user id
+     * @param after cursor to page forward from, or null
+     * @param before cursor to page backward from, or null
+     * @param limit page size
+     * @return page of messages with cursors for the neighbouring pages
+     */
+    public Page<Message> getMessagesPageByUserId(int id, Integer after, Integer before, int limit) {
+        return getPage(id, after, before, limit);
+    }
+
+    /**
+     * Fetch one row more than requested so the presence of a further page is known without a count query.
+     * When only before is given the page is read backwards from the cursor and then put back in ascending order.
+     * Per-user pages come from the user's timeline when they fall inside it.
+     */
+    private Page<Message> getPage(Integer postedBy, Integer after, Integer before, int limit) {
+        boolean backwards = before != null && after == null;
+        int low = after == null ? 0 : after;
+        int high = before == null ? Integer.MAX_VALUE : before;
+        List<Message> rows = null;
+        if (postedBy != null)
+            rows = timelines.rows(postedBy, low, high, limit + 1, backwards, this::loadTimeline);
+        if (rows == null)
+            rows = messageDAO.getMessagesPage(postedBy, low, high, limit + 1, backwards);
+        boolean more = rows.size() > limit;
+        List<Message> items = new ArrayList<>(more ? rows.subList(0, limit) : rows);
+        if (backwards)
+            Collections.reverse(items);
+        if (items.isEmpty())
+            return new Page<>(items, null, null);
+        int first = items.get(0).getMessage_id();
+        int last = items.get(items.size() - 1).getMessage_id();
+        if (backwards)
+            return new Page<>(items, last, more ? first : null);
+        else return new Page<>(items, more ? last : null, after != null ? first : null);
+    }
+
+    /**
+     * Message text must not be blank and must not be longer than 255 characters
+     */
+    private boolean isValidMessageText(String text) {
+        return text != null && !text.isBlank() && text.length() <= 255;
+    }
+
+    /**
+     * Called once a change to a message is committed and in the caches, so a reader that sees the new version also
+     * reads the new message
+     */
+    private void bumpVersions(Message message) {
+        messageVersions.bump(message.getMessage_id());
+        timelineVersions.bump(message.getPosted_by());
+    }
+
+    /**
+     * Add a committed message to the caches and the search index. It runs under the message's stripe lock, so it is
+     * ordered with the updates and deletes of the message; if one of them came first, the message is read again and
+     * indexed as it is now, or not at all if it has been deleted.
+     */
+    private void indexNewMessage(Message newMessage) {
+        int id = newMessage.getMessage_id();
+        Message current = newMessage;
+        synchronized (indexOrderLock(id)) {
+            if (changedBeforeIndexed.contains(id))
+                current = messageDAO.getMessageById(id);
+            indexedIds.add(id);
+            if (current == null)
+                return;
+            messageCache.put(current);
+            timelines.onCreate(current);
+            recentMessages.onCreate(current);
+            searchIndex.add(id, current.getMessage_text());
+        }
+        bumpVersions(current);
+    }
+
+    /**
+     * Apply an update's or delete's change to the search index, or, if the message has not been indexed yet, mark it so
+     * that it is indexed as it is after the change. Called under the message's stripe lock.
+     */
+    private void applyIndexChange(int id, Runnable indexChange) {
+        if (indexedIds.contains(id))
+            indexChange.run();
+        else changedBeforeIndexed.add(id);
+    }
+
+    private Object indexOrderLock(int id) {
+        return indexOrderLocks[id & (indexOrderLocks.length - 1)];
+    }
+
+    /**
+     * Index the text of every stored message. Writes made through this service from then on keep the index current.
+     */
+    private void buildSearchIndex() {
+        try {
+            messageDAO.streamMessages(null, message -> {
+                indexedIds.add(message.getMessage_id());
+                searchIndex.add(message.getMessage_id(), message.getMessage_text());
+            });
+        }
+        catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Read the newest messages of an account to seed its timeline
+     */
+    private List<Message> loadTimeline(int accountId) {
+        return messageDAO.getMessagesPage(accountId, Integer.MIN_VALUE, Integer.MAX_VALUE, timelines.loadSize(), true);
+    }
 }
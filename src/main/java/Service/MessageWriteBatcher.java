@@ -0,0 +1,203 @@
+package Service;
+
+import DAO.MessageDAO;
+import Model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent single-message inserts into group commits.
+ *
+ * Callers submit a message and get a future. A single writer thread takes the first waiting message, keeps collecting
+ * until the window has passed or maxBatchSize messages are waiting, and writes them all with MessageDAO.newMessages in
+ * one transaction, so the batch pays for one commit instead of one per message. Each future is completed with its own
+ * message, including its generated id, only after that commit has returned; a caller is never told a message was
+ * saved before it is durable. If the batch transaction fails, its messages are retried one at a time so a single bad
+ * row only fails its own caller.
+ *
+ * The futures are completed on the completions executor, not on the writer thread, since completing a future runs the
+ * callers' follow-up work: updating the caches and index, encoding and compressing the response. On the writer that
+ * work would run one request at a time and hold up the next commit. If the executor rejects a completion it runs on
+ * the writer after all, because the message is already committed and its caller must hear about it.
+ *
+ * The writer thread is started by the first submit and exits after it has been idle for a minute. If a write throws
+ * an Error the writer fails the batch it was writing and exits, and the next submit starts a new one.
+ */
+public class MessageWriteBatcher {
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    private final MessageDAO messageDAO;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final Executor completions;
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean writerRunning = new AtomicBoolean();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+
+    private static class PendingWrite {
+        final Message message;
+        final CompletableFuture<Message> future = new CompletableFuture<>();
+
+        PendingWrite(Message message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * @param messageDAO DAO used to write the batches
+     * @param maxBatchSize most messages written in one transaction
+     * @param windowMicros how long to keep collecting after the first message of a batch arrives; 0 writes whatever
+     *                     queued up while the previous batch was committing
+     * @param completions runs the completion of each caller's future, and with it the caller's follow-up work
+     */
+    public MessageWriteBatcher(MessageDAO messageDAO, int maxBatchSize, long windowMicros, Executor completions) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        this.messageDAO = messageDAO;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.completions = completions;
+    }
+
+    /**
+     * Queue a validated message for the next group commit.
+     * @param message message to insert
+     * @return future completed after the commit with the persisted message, or with null if it could not be written
+     */
+    public CompletableFuture<Message> submit(Message message) {
+        PendingWrite write = new PendingWrite(message);
+        queue.add(write);
+        startWriterIfIdle();
+        return write.future;
+    }
+
+    /**
+     * @return number of transactions written so far
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of messages written so far, across all batches
+     */
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    private void startWriterIfIdle() {
+        if (writerRunning.compareAndSet(false, true)) {
+            Thread writer = new Thread(this::runWriter, "message-write-batcher");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private void runWriter() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        boolean released = false;
+        try {
+            while (true) {
+                PendingWrite first = queue.poll(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (first == null) {
+                    writerRunning.set(false);
+                    // a submit may have queued a message after the poll timed out but before the flag was cleared
+                    if (queue.isEmpty() || !writerRunning.compareAndSet(false, true)) {
+                        released = true;
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+                write(batch);
+                batch.clear();
+            }
+        } catch (Throwable e) {
+            // InterruptedException, or an Error from the driver; either way this writer stops
+            for (PendingWrite write : batch)
+                fail(write, e);
+        } finally {
+            if (!released) {
+                writerRunning.set(false);
+                // messages queued while this writer was failing would otherwise wait for the next submit
+                if (!queue.isEmpty())
+                    startWriterIfIdle();
+            }
+        }
+    }
+
+    private void collect(List<PendingWrite> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatchSize) {
+            if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0)
+                continue;
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return;
+            PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+                return;
+            batch.add(next);
+        }
+    }
+
+    private void write(List<PendingWrite> batch) {
+        try {
+            if (batch.size() == 1) {
+                writeOne(batch.get(0));
+                return;
+            }
+            List<Message> toInsert = new ArrayList<>(batch.size());
+            for (PendingWrite write : batch)
+                toInsert.add(write.message);
+            List<Message> inserted = messageDAO.newMessages(toInsert);
+            if (inserted == null) {
+                // the whole transaction was rolled back; write the messages separately so only the bad ones fail
+                for (PendingWrite write : batch)
+                    writeOne(write);
+                return;
+            }
+            batches.increment();
+            messages.add(batch.size());
+            for (int i = 0; i < batch.size(); i++)
+                complete(batch.get(i), inserted.get(i));
+        } catch (RuntimeException e) {
+            for (PendingWrite write : batch)
+                fail(write, e);
+        }
+    }
+
+    private void writeOne(PendingWrite write) {
+        Message newMessage = messageDAO.newMessage(write.message);
+        batches.increment();
+        if (newMessage != null)
+            messages.increment();
+        complete(write, newMessage);
+    }
+
+    private void complete(PendingWrite write, Message newMessage) {
+        handOff(() -> write.future.complete(newMessage));
+    }
+
+    private void fail(PendingWrite write, Throwable cause) {
+        handOff(() -> write.future.completeExceptionally(cause));
+    }
+
+    private void handOff(Runnable completion) {
+        try {
+            completions.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 password hashes.
+ *
+ * A hash is stored as pbkdf2-sha256$iterations$salt$hash with the salt and hash in Base64, so the cost it was made with
+ * travels with it: raising the iteration count only affects new hashes, and needsRehash() tells the caller when a
+ * stored hash is weaker than the current setting. Passwords stored before hashing was introduced are plain text;
+ * verify() still accepts them and needsRehash() reports them so they can be upgraded on the next login.
+ *
+ * Hashing is slow on purpose. Run it on the PasswordHashExecutor, never on an HTTP or database thread.
+ */
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    /**
+     * Verified against when a username does not exist, so a failed login takes as long for an unknown user as for a
+     * wrong password and does not reveal which usernames are taken. One per iteration count, made on first use and
+     * shared by every hasher in the process, so creating a hasher costs no hashing.
+     */
+    private static final ConcurrentHashMap<Integer, String> dummyHashes = new ConcurrentHashMap<>();
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param iterations PBKDF2 iteration count; each doubling doubles the cost of a hash
+     */
+    public PasswordHasher(int iterations) {
+        if (iterations < 1)
+            throw new IllegalArgumentException("iterations must be at least 1");
+        this.iterations = iterations;
+    }
+
+    /**
+     * @param password plain text password
+     * @return a new salted hash of the password
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * @param password plain text password given at login
+     * @param stored the stored hash, a legacy plain text password, or null if the account does not exist
+     * @return true if the password matches; always false for a null stored value, after the same amount of work
+     */
+    public boolean verify(String password, String stored) {
+        if (stored == null) {
+            verify(password, dummyHashes.computeIfAbsent(iterations, i -> hash("not a password")));
+            return false;
+        }
+        if (!stored.startsWith(PREFIX))
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4)
+            return false;
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] expected = base64.decode(parts[3]);
+            byte[] actual = derive(password, base64.decode(parts[2]), Integer.parseInt(parts[1]));
+            return MessageDigest.isEqual(expected, actual);
+        }
+        catch (IllegalArgumentException e) {
+            // a malformed hash never matches
+            return false;
+        }
+    }
+
+    /**
+     * @param stored a stored hash or legacy plain text password
+     * @return true if it should be replaced with hash() of the password the next time the password is known
+     */
+    public boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package Service;
+
+import Model.Message;
+import Util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory, time-sorted segment of recent messages for time-range listings of GET /messages.
+ *
+ * The segment holds every message whose time_posted_epoch is at or after a boundary, ordered by (time_posted_epoch,
+ * message_id) in a skip list, so a range that starts at or after the boundary is answered by seeking to its start and
+ * reading only the rows returned. Older ranges are left to the database. The boundary trails the clock by the window
+ * and is raised further when the segment holds more than maxMessages, by dropping its oldest messages.
+ *
+ * time_posted_epoch is chosen by the client, so a new message can carry any time. One older than the boundary is not
+ * kept, which loses nothing, since every range that could include it goes to the database.
+ *
+ * Reads never block. Trimming raises the boundary before it drops messages and a reader checks the boundary again
+ * after collecting its rows, so a read that raced a trim falls back to the database instead of missing rows.
+ */
+public class RecentMessages {
+    private static final int LOAD_PAGE_SIZE = 1000;
+
+    private final long windowSeconds;
+    private final int maxMessages;
+    private final ConcurrentSkipListMap<Key, Message> messages = new ConcurrentSkipListMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    /**
+     * Every message with a time_posted_epoch at or after this is in the segment; nothing is until the first load
+     */
+    private volatile long coveredSince = Long.MAX_VALUE;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Reads one page of messages in (time_posted_epoch, message_id) order. Same contract as
+     * MessageDAO.getMessagesByTime for all accounts and no upper bound.
+     */
+    public interface PageLoader {
+        List<Message> load(long since, int afterId, int limit);
+    }
+
+    /**
+     * @param windowSeconds how far back from the current time messages are kept
+     * @param maxMessages most messages kept; the oldest are dropped beyond this
+     */
+    public RecentMessages(long windowSeconds, int maxMessages) {
+        this.windowSeconds = windowSeconds;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Fill the segment with the messages inside the window. Call once, before writes are passed to onCreate.
+     * @param loader reads the stored messages, a page at a time
+     */
+    public void load(PageLoader loader) {
+        long since = now() - windowSeconds;
+        coveredSince = since;
+        int afterId = Integer.MIN_VALUE;
+        while (true) {
+            List<Message> page = loader.load(since, afterId, LOAD_PAGE_SIZE);
+            for (Message message : page)
+                onCreate(message);
+            if (page.size() < LOAD_PAGE_SIZE)
+                return;
+            Message last = page.get(page.size() - 1);
+            since = last.getTime_posted_epoch();
+            afterId = last.getMessage_id();
+        }
+    }
+
+    /**
+     * Answer a time-range page from memory. Same contract as MessageDAO.getMessagesByTime for all accounts.
+     * @param since only messages with a time_posted_epoch greater than or equal to this
+     * @param afterId among the messages posted at exactly since, only those with a greater message_id
+     * @param until only messages with a time_posted_epoch less than this
+     * @param limit maximum number of rows
+     * @return the rows, or null if the range starts before the segment
+     */
+    public List<Message> rows(long since, int afterId, long until, int limit) {
+        if (since < coveredSince) {
+            misses.increment();
+            return null;
+        }
+        List<Message> rows = new ArrayList<>();
+        if (until > since) {
+            for (Message message : messages.subMap(new Key(since, afterId), false,
+                    new Key(until, Integer.MIN_VALUE), false).values()) {
+                if (rows.size() == limit)
+                    break;
+                rows.add(message);
+            }
+        }
+        if (since < coveredSince) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return rows;
+    }
+
+    /**
+     * Add a newly created message if it falls inside the segment.
+     */
+    public void onCreate(Message message) {
+        long time = message.getTime_posted_epoch();
+        if (time < coveredSince)
+            return;
+        boolean added = messages.put(new Key(time, message.getMessage_id()), message) == null;
+        if (added && size.incrementAndGet() > maxMessages || coveredSince < now() - windowSeconds)
+            trim();
+    }
+
+    /**
+     * Replace an updated message, if the segment holds it.
+     */
+    public void onUpdate(Message message) {
+        messages.replace(new Key(message.getTime_posted_epoch(), message.getMessage_id()), message);
+    }
+
+    /**
+     * Remove a deleted message, if the segment holds it.
+     */
+    public void onDelete(Message message) {
+        if (messages.remove(new Key(message.getTime_posted_epoch(), message.getMessage_id())) != null)
+            size.decrementAndGet();
+    }
+
+    /**
+     * @return number of messages held
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Move the boundary up to the window's start, or further if the segment is over capacity, and drop the messages
+     * below it. Over capacity a tenth of the capacity is dropped at once so trimming is amortized over many inserts,
+     * and every message sharing a time with a dropped one goes too, so no time is left partly covered.
+     */
+    private synchronized void trim() {
+        long boundary = Math.max(coveredSince, now() - windowSeconds);
+        int excess = size.get() - maxMessages;
+        if (excess > 0) {
+            int toDrop = excess + maxMessages / 10;
+            Iterator<Key> keys = messages.keySet().iterator();
+            Key last = null;
+            for (int i = 0; i < toDrop && keys.hasNext(); i++)
+                last = keys.next();
+            if (last != null && last.time != Long.MAX_VALUE)
+                boundary = Math.max(boundary, last.time + 1);
+        }
+        coveredSince = boundary;
+        ConcurrentNavigableMap<Key, Message> dropped = messages.headMap(new Key(boundary, Integer.MIN_VALUE));
+        for (Map.Entry<Key, Message> entry = dropped.pollFirstEntry(); entry != null; entry = dropped.pollFirstEntry())
+            size.decrementAndGet();
+    }
+
+    /**
+     * Append the segment's metrics in Prometheus text format.
+     * @param out destination
+     */
+    public void writeTo(StringBuilder out) {
+        Metrics.family(out, "recent_messages", "gauge", "Messages held in the in-memory time-sorted segment.");
+        Metrics.sample(out, "recent_messages", "", size.get());
+        Metrics.family(out, "recent_messages_since_seconds", "gauge",
+                "Earliest time_posted_epoch a time-range query can start at and still be served from memory.");
+        Metrics.sample(out, "recent_messages_since_seconds", "", coveredSince);
+        Metrics.family(out, "time_range_queries_total", "counter",
+                "Time-range listings of all messages, by where they were served from.");
+        Metrics.sample(out, "time_range_queries_total", Metrics.labels("source", "memory"), hits.sum());
+        Metrics.sample(out, "time_range_queries_total", Metrics.labels("source", "database"), misses.sum());
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * Position of a message in the segment: its time, then its id to order messages posted at the same time.
+     */
+    private static class Key implements Comparable<Key> {
+        final long time;
+        final int id;
+
+        Key(long time, int id) {
+            this.time = time;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Integer.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).time == time && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(time) * 31 + id;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory inverted index over message_text for GET /messages/search.
+ *
+ * Text is split into lower-cased runs of letters and digits. Each token maps to its postings: the ids of the messages
+ * that contain it, in ascending order, stored as delta-encoded varints in a byte array. Ids are mostly handed out in
+ * increasing order, so adding a message appends a byte or two to each of its tokens' postings.
+ *
+ * Everything else is lazy, so a write never re-encodes a postings list: an id added out of order goes to a small
+ * sorted side array, and a removed id is recorded as a tombstone that readers skip. Once a list has collected enough
+ * of either, relative to its size, it is compacted into a fresh encoding on a background thread, which drops lists
+ * left empty. Callers must still check that a result matches, since a word can briefly remain indexed for a message
+ * whose text has changed.
+ *
+ * Readers take an immutable snapshot of each postings list and never block. Writers to the same postings list,
+ * including compaction, are serialized by the map. A multi-term query intersects the postings of its terms, walking
+ * the rarest first.
+ */
+public class SearchIndex {
+    private static final int MAX_TOKEN_LENGTH = 64;
+    /**
+     * Bounds on the side arrays of a postings list before it is compacted; in between, a sixteenth of its size
+     */
+    private static final int MIN_PENDING = 8;
+    private static final int MAX_PENDING = 4096;
+    private static final int[] NONE = new int[0];
+
+    private final ConcurrentHashMap<String, Postings> postings = new ConcurrentHashMap<>();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final ThreadPoolExecutor compactor = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), task -> {
+                Thread thread = new Thread(task, "search-index-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * @param text message text
+     * @return its distinct tokens, in order of first appearance
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null)
+            return tokens;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0)
+                start = i;
+            else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TOKEN_LENGTH)
+                    tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Index a message's text under its id.
+     */
+    public void add(int id, String text) {
+        for (String token : tokenize(text))
+            add(token, id);
+    }
+
+    /**
+     * Remove a message's text from the index; text must be what was indexed for it.
+     */
+    public void remove(int id, String text) {
+        for (String token : tokenize(text))
+            remove(token, id);
+    }
+
+    /**
+     * Re-index a message whose text changed, touching only the tokens that differ.
+     */
+    public void update(int id, String oldText, String newText) {
+        Set<String> oldTokens = tokenize(oldText);
+        Set<String> newTokens = tokenize(newText);
+        for (String token : oldTokens) {
+            if (!newTokens.contains(token))
+                remove(token, id);
+        }
+        for (String token : newTokens) {
+            if (!oldTokens.contains(token))
+                add(token, id);
+        }
+    }
+
+    /**
+     * Postings are only changed inside compute, so a list is never dropped by compaction while an add to it is under
+     * way.
+     */
+    private void add(String token, int id) {
+        postings.compute(token, (t, list) -> {
+            if (list == null)
+                list = new Postings(t);
+            list.add(id);
+            return list;
+        });
+    }
+
+    private void remove(String token, int id) {
+        postings.computeIfPresent(token, (t, list) -> {
+            list.remove(id);
+            return list;
+        });
+    }
+
+    private void compact(String token) {
+        postings.computeIfPresent(token, (t, list) -> list.compact() ? list : null);
+    }
+
+    /**
+     * Iterate over the ids of the messages that contain every token of a query, in ascending order.
+     * @param tokens query tokens as returned by tokenize
+     * @param after only ids greater than this
+     * @return the matching ids; empty if there are no tokens or one of them is unknown
+     */
+    public IdIterator search(Set<String> tokens, int after) {
+        if (tokens.isEmpty())
+            return new IdIterator(new PostingsIterator[0], after);
+        List<PostingsIterator> iterators = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            Postings list = postings.get(token);
+            if (list == null)
+                return new IdIterator(new PostingsIterator[0], after);
+            iterators.add(list.iterator());
+        }
+        iterators.sort(Comparator.comparingInt(PostingsIterator::size));
+        return new IdIterator(iterators.toArray(new PostingsIterator[0]), after);
+    }
+
+    /**
+     * @return number of distinct tokens
+     */
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    /**
+     * @return total size of the encoded postings, including ids waiting to be compacted into them
+     */
+    public long getPostingsBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return number of postings lists compacted so far
+     */
+    public long getCompactionCount() {
+        return compactions.sum();
+    }
+
+    /**
+     * Ids matching every term of a query, produced lazily by intersecting the terms' postings.
+     */
+    public static class IdIterator {
+        private final PostingsIterator[] iterators;
+        private int last;
+
+        private IdIterator(PostingsIterator[] iterators, int after) {
+            this.iterators = iterators;
+            // ids start at 1, and a fresh PostingsIterator only moves forward for targets of 0 and up
+            this.last = Math.max(after, 0);
+        }
+
+        /**
+         * @return the next matching id, or -1 when there are no more
+         */
+        public int next() {
+            if (iterators.length == 0 || last == Integer.MAX_VALUE)
+                return -1;
+            int candidate = last + 1;
+            int agreeing = 0;
+            // move the iterators round-robin to the candidate; one that overshoots proposes a larger candidate
+            for (int i = 0; agreeing < iterators.length; i = (i + 1) % iterators.length) {
+                int id = iterators[i].advance(candidate);
+                if (id < 0)
+                    return -1;
+                if (id == candidate)
+                    agreeing++;
+                else {
+                    candidate = id;
+                    agreeing = 1;
+                }
+            }
+            last = candidate;
+            return candidate;
+        }
+    }
+
+    /**
+     * Sequential reader over one postings snapshot: the encoded ids merged with the side array, less the tombstones.
+     */
+    private static class PostingsIterator {
+        final Snapshot snapshot;
+        int position;
+        int decoded = -1;
+        int extraIndex;
+        int current = -1;
+
+        PostingsIterator(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        int size() {
+            return snapshot.count + snapshot.extras.length;
+        }
+
+        /**
+         * @return the first id greater than or equal to target, or -1 if there is none
+         */
+        int advance(int target) {
+            if (current >= target)
+                return current;
+            while (true) {
+                while (decoded < target && position < snapshot.length)
+                    decodeNext();
+                int encoded = decoded >= target ? decoded : -1;
+                int[] extras = snapshot.extras;
+                while (extraIndex < extras.length && extras[extraIndex] < target)
+                    extraIndex++;
+                int extra = extraIndex < extras.length ? extras[extraIndex] : -1;
+                int id = encoded < 0 ? extra : extra < 0 ? encoded : Math.min(encoded, extra);
+                if (id < 0 || Arrays.binarySearch(snapshot.tombstones, id) < 0)
+                    return current = id;
+                if (id == Integer.MAX_VALUE)
+                    return current = -1;
+                target = id + 1;
+            }
+        }
+
+        private void decodeNext() {
+            byte[] data = snapshot.data;
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            decoded = decoded < 0 ? delta : decoded + delta;
+        }
+    }
+
+    /**
+     * The postings of one token. The array beyond length is only ever written by appends that have not been published
+     * yet, so a reader holding an older snapshot is unaffected by them.
+     */
+    private class Postings {
+        private final String token;
+        private volatile Snapshot snapshot = new Snapshot(new byte[8], 0, 0, -1, NONE, NONE);
+        private boolean compactionQueued;
+
+        Postings(String token) {
+            this.token = token;
+        }
+
+        PostingsIterator iterator() {
+            return new PostingsIterator(snapshot);
+        }
+
+        void add(int id) {
+            Snapshot current = snapshot;
+            int[] tombstones = without(current.tombstones, id);
+            if (id > current.last) {
+                byte[] data = current.data;
+                int delta = current.last < 0 ? id : id - current.last;
+                if (current.length + 5 > data.length)
+                    data = Arrays.copyOf(data, Math.max(data.length * 2, current.length + 5));
+                int length = writeVarint(data, current.length, delta);
+                publish(current, new Snapshot(data, length, current.count + 1, id, current.extras, tombstones));
+                return;
+            }
+            if (tombstones != current.tombstones) {
+                // removed and added back: the id is still encoded
+                publish(current, new Snapshot(current.data, current.length, current.count, current.last,
+                        current.extras, tombstones));
+                return;
+            }
+            publish(current, new Snapshot(current.data, current.length, current.count, current.last,
+                    with(current.extras, id), tombstones));
+        }
+
+        void remove(int id) {
+            Snapshot current = snapshot;
+            int[] extras = without(current.extras, id);
+            // only encoded ids need a tombstone, and none is greater than last
+            int[] tombstones = id > current.last ? current.tombstones : with(current.tombstones, id);
+            publish(current, new Snapshot(current.data, current.length, current.count, current.last, extras,
+                    tombstones));
+        }
+
+        /**
+         * Re-encode the live ids, folding in the side array and dropping the tombstones.
+         * @return false if no ids are left, so the list can be dropped
+         */
+        boolean compact() {
+            compactionQueued = false;
+            Snapshot current = snapshot;
+            PostingsIterator iterator = new PostingsIterator(current);
+            int[] ids = new int[iterator.size()];
+            int n = 0;
+            for (int id = iterator.advance(1); id >= 0 && id < Integer.MAX_VALUE; id = iterator.advance(id + 1))
+                ids[n++] = id;
+            byte[] data = new byte[Math.max(8, n * 2 + 5)];
+            int length = 0;
+            int previous = -1;
+            for (int i = 0; i < n; i++) {
+                if (length + 5 > data.length)
+                    data = Arrays.copyOf(data, data.length * 2);
+                length = writeVarint(data, length, previous < 0 ? ids[i] : ids[i] - previous);
+                previous = ids[i];
+            }
+            Snapshot compacted = new Snapshot(data, length, n, previous, NONE, NONE);
+            compactions.increment();
+            if (n == 0) {
+                bytes.add(-current.bytes());
+                return false;
+            }
+            publish(current, compacted);
+            return true;
+        }
+
+        private void publish(Snapshot current, Snapshot next) {
+            bytes.add(next.bytes() - current.bytes());
+            snapshot = next;
+            int pending = next.extras.length + next.tombstones.length;
+            int threshold = Math.max(MIN_PENDING, Math.min(MAX_PENDING, next.count / 16));
+            // a list with as many tombstones as ids may be empty; compact it soon so its term goes away
+            if (!compactionQueued && (pending >= threshold || next.tombstones.length >= next.count + next.extras.length
+                    && pending > 0)) {
+                compactionQueued = true;
+                compactor.execute(() -> SearchIndex.this.compact(token));
+            }
+        }
+    }
+
+    /**
+     * Immutable view of a postings list: the encoded ids, the greatest of them, and the sorted side arrays of ids added
+     * out of order and of encoded ids that have been removed.
+     */
+    private static class Snapshot {
+        final byte[] data;
+        final int length;
+        final int count;
+        final int last;
+        final int[] extras;
+        final int[] tombstones;
+
+        Snapshot(byte[] data, int length, int count, int last, int[] extras, int[] tombstones) {
+            this.data = data;
+            this.length = length;
+            this.count = count;
+            this.last = last;
+            this.extras = extras;
+            this.tombstones = tombstones;
+        }
+
+        long bytes() {
+            return length + 4L * (extras.length + tombstones.length);
+        }
+    }
+
+    /**
+     * @return a copy of the sorted array with the id inserted, or the array itself if it already holds the id
+     */
+    private static int[] with(int[] ids, int id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index >= 0)
+            return ids;
+        int insertAt = -index - 1;
+        int[] grown = new int[ids.length + 1];
+        System.arraycopy(ids, 0, grown, 0, insertAt);
+        grown[insertAt] = id;
+        System.arraycopy(ids, insertAt, grown, insertAt + 1, ids.length - insertAt);
+        return grown;
+    }
+
+    /**
+     * @return a copy of the sorted array without the id, or the array itself if it does not hold the id
+     */
+    private static int[] without(int[] ids, int id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0)
+            return ids;
+        if (ids.length == 1)
+            return NONE;
+        int[] shrunk = new int[ids.length - 1];
+        System.arraycopy(ids, 0, shrunk, 0, index);
+        System.arraycopy(ids, index + 1, shrunk, index, ids.length - index - 1);
+        return shrunk;
+    }
+
+    /**
+     * @return the position after the written value
+     */
+    private static int writeVarint(byte[] data, int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            data[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+}
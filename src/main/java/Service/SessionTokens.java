@@ -0,0 +1,196 @@
+package Service;
+
+import Util.Metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stateless session tokens issued at login.
+ *
+ * A token is payload.signature, both Base64url. The payload holds the account id, the expiry time and a random token
+ * id. The signature is an HMAC-SHA256 of the payload, truncated to 128 bits, so checking a token needs no database
+ * lookup and no shared session store: any request carrying a valid token is from that account. Logout cannot un-sign a
+ * token, so revoked token ids are kept in memory until the token would have expired anyway, which keeps the list as
+ * small as the number of logouts within one token lifetime.
+ *
+ * The signing key is read from socialmedia.auth.secret. Without it a random key is generated at startup, which is fine
+ * for a single instance but logs everyone out on restart.
+ */
+public class SessionTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int PAYLOAD_BYTES = 4 + 8 + 8;
+    private static final int SIGNATURE_BYTES = 16;
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> macs;
+    /**
+     * Revoked token ids and the epoch second their token expires
+     */
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>();
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder valid = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder revokedUses = new LongAdder();
+
+    /**
+     * @param secret signing key, or null to generate a random one
+     * @param ttlSeconds how long a token stays valid after it is issued
+     */
+    public SessionTokens(String secret, long ttlSeconds) {
+        byte[] keyBytes;
+        if (secret == null) {
+            keyBytes = new byte[32];
+            random.nextBytes(keyBytes);
+        }
+        else keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(ALGORITHM + " is not available", e);
+            }
+        });
+    }
+
+    /**
+     * @param accountId account that has just logged in
+     * @return a new token for the account
+     */
+    public String issue(int accountId) {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_BYTES);
+        payload.putInt(accountId);
+        payload.putLong(now() + ttlSeconds);
+        payload.putLong(random.nextLong());
+        String encoded = Base64.getUrlEncoder().withoutPadding().encodeToString(payload.array());
+        issued.increment();
+        return encoded + "." + sign(encoded);
+    }
+
+    /**
+     * Check a token's signature, expiry and revocation, all in memory.
+     * @param token token as sent by the client
+     * @return the id of the account the token was issued to, or null if it is not valid
+     */
+    public Integer verify(String token) {
+        ByteBuffer payload = decode(token);
+        if (payload == null) {
+            invalid.increment();
+            return null;
+        }
+        int accountId = payload.getInt();
+        long expiresAt = payload.getLong();
+        long tokenId = payload.getLong();
+        if (expiresAt <= now()) {
+            expired.increment();
+            return null;
+        }
+        if (revoked.containsKey(tokenId)) {
+            revokedUses.increment();
+            return null;
+        }
+        valid.increment();
+        return accountId;
+    }
+
+    /**
+     * Make a token unusable before it expires, e.g. on logout.
+     * @param token token as sent by the client
+     * @return true if the token was valid and is now revoked
+     */
+    public boolean revoke(String token) {
+        if (verify(token) == null)
+            return false;
+        ByteBuffer payload = decode(token);
+        payload.getInt();
+        long expiresAt = payload.getLong();
+        revoked.put(payload.getLong(), expiresAt);
+        purgeExpired();
+        return true;
+    }
+
+    /**
+     * @return number of revoked tokens that have not expired yet
+     */
+    public int getRevokedCount() {
+        return revoked.size();
+    }
+
+    /**
+     * Append the token metrics in Prometheus text format.
+     * @param out destination
+     */
+    public void writeTo(StringBuilder out) {
+        Metrics.family(out, "auth_tokens_issued_total", "counter", "Session tokens issued at login.");
+        Metrics.sample(out, "auth_tokens_issued_total", "", issued.sum());
+        Metrics.family(out, "auth_token_checks_total", "counter", "Session tokens checked, by result.");
+        Metrics.sample(out, "auth_token_checks_total", Metrics.labels("result", "valid"), valid.sum());
+        Metrics.sample(out, "auth_token_checks_total", Metrics.labels("result", "invalid"), invalid.sum());
+        Metrics.sample(out, "auth_token_checks_total", Metrics.labels("result", "expired"), expired.sum());
+        Metrics.sample(out, "auth_token_checks_total", Metrics.labels("result", "revoked"), revokedUses.sum());
+        Metrics.family(out, "auth_revoked_tokens", "gauge", "Revoked tokens kept until they expire.");
+        Metrics.sample(out, "auth_revoked_tokens", "", revoked.size());
+    }
+
+    /**
+     * @return the payload if the token is well formed and its signature is right, otherwise null
+     */
+    private ByteBuffer decode(String token) {
+        if (token == null)
+            return null;
+        int dot = token.indexOf('.');
+        if (dot < 0)
+            return null;
+        String encoded = token.substring(0, dot);
+        byte[] expected = sign(encoded).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = token.substring(dot + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual))
+            return null;
+        byte[] payload;
+        try {
+            payload = Base64.getUrlDecoder().decode(encoded);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+        return payload.length == PAYLOAD_BYTES ? ByteBuffer.wrap(payload) : null;
+    }
+
+    private String sign(String encodedPayload) {
+        byte[] mac = macs.get().doFinal(encodedPayload.getBytes(StandardCharsets.US_ASCII));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(mac, SIGNATURE_BYTES));
+    }
+
+    private void purgeExpired() {
+        long now = now();
+        Iterator<Long> expiries = revoked.values().iterator();
+        while (expiries.hasNext()) {
+            if (expiries.next() <= now)
+                expiries.remove();
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,230 @@
+package Service;
+
+import Model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Materialized per-account timelines for GET /accounts/{account_id}/messages.
+ *
+ * Each account's timeline is an ordered, bounded window of its most recent messages. A timeline is loaded from the
+ * database the first time the account is read and is then kept current on write (fan-out on write) by MessageService,
+ * so profile pages are served in O(log n + page) time from memory. A timeline that holds every message of its account
+ * is complete and can answer any page; otherwise it can answer pages that fall inside its window, and the caller falls
+ * back to the database for older pages.
+ *
+ * Readers see an immutable array snapshot and never block; writers to the same timeline are serialized.
+ */
+public class TimelineStore {
+    private static final Comparator<Message> BY_ID = Comparator.comparingInt(Message::getMessage_id);
+
+    private final int maxMessagesPerTimeline;
+    private final int maxTimelines;
+    private final ConcurrentHashMap<Integer, Timeline> timelines = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxMessagesPerTimeline number of most recent messages kept per account
+     * @param maxTimelines number of accounts whose timelines are kept; least recently read ones are dropped
+     */
+    public TimelineStore(int maxMessagesPerTimeline, int maxTimelines) {
+        this.maxMessagesPerTimeline = maxMessagesPerTimeline;
+        this.maxTimelines = maxTimelines;
+    }
+
+    /**
+     * @return the number of most recent messages the loader must return, plus one so completeness can be detected
+     */
+    public int loadSize() {
+        return maxMessagesPerTimeline + 1;
+    }
+
+    /**
+     * Answer a keyset page query from an account's timeline. Same contract as MessageDAO.getMessagesPage.
+     * @param accountId account whose messages are listed
+     * @param after only messages with a greater id
+     * @param before only messages with a smaller id
+     * @param limit maximum number of rows
+     * @param descending true to take the rows closest to before
+     * @param loader reads the account's newest loadSize() messages in descending id order on the first access
+     * @return the rows, or null if they are not all inside the timeline's window
+     */
+    public List<Message> rows(int accountId, int after, int before, int limit, boolean descending,
+                              IntFunction<List<Message>> loader) {
+        Timeline timeline = timelines.computeIfAbsent(accountId, id -> new Timeline());
+        timeline.lastAccess = System.nanoTime();
+        Snapshot snapshot = timeline.snapshot;
+        if (snapshot == null) {
+            snapshot = timeline.load(accountId, loader);
+            evictIfNeeded();
+        }
+        Message[] messages = snapshot.messages;
+        int from = upperBound(messages, after);
+        int to = lowerBound(messages, before);
+        int matching = Math.max(0, to - from);
+        if (!snapshot.complete) {
+            // rows older than the window may exist; they only matter if the page could reach past the window's start
+            boolean reachesPastWindow = descending ? matching < limit : messages.length == 0 || after < messages[0].getMessage_id();
+            if (reachesPastWindow)
+                return null;
+        }
+        int count = Math.min(matching, limit);
+        List<Message> rows = new ArrayList<>(count);
+        if (descending) {
+            for (int i = to - 1; i >= to - count; i--)
+                rows.add(messages[i]);
+        }
+        else {
+            rows.addAll(Arrays.asList(messages).subList(from, from + count));
+        }
+        return rows;
+    }
+
+    /**
+     * Add a newly created message to its poster's timeline, if that timeline is loaded.
+     */
+    public void onCreate(Message message) {
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null)
+            timeline.upsert(message);
+    }
+
+    /**
+     * Replace an updated message in its poster's timeline, if that timeline is loaded.
+     */
+    public void onUpdate(Message message) {
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null)
+            timeline.upsert(message);
+    }
+
+    /**
+     * Remove a deleted message from its poster's timeline, if that timeline is loaded.
+     */
+    public void onDelete(Message message) {
+        Timeline timeline = timelines.get(message.getPosted_by());
+        if (timeline != null)
+            timeline.remove(message.getMessage_id());
+    }
+
+    private void evictIfNeeded() {
+        int excess = timelines.size() - maxTimelines;
+        if (excess <= 0)
+            return;
+        // drop a tenth of the capacity at once so the scan is amortized over many loads
+        List<Map.Entry<Integer, Timeline>> entries = new ArrayList<>(timelines.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastAccess));
+        int toRemove = Math.min(entries.size(), excess + maxTimelines / 10);
+        for (int i = 0; i < toRemove; i++)
+            timelines.remove(entries.get(i).getKey(), entries.get(i).getValue());
+    }
+
+    /**
+     * @return index of the first message with an id greater than id
+     */
+    private static int upperBound(Message[] messages, int id) {
+        int low = 0, high = messages.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (messages[mid].getMessage_id() <= id)
+                low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the first message with an id greater than or equal to id
+     */
+    private static int lowerBound(Message[] messages, int id) {
+        int low = 0, high = messages.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (messages[mid].getMessage_id() < id)
+                low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Immutable view of a timeline: messages in ascending id order and whether they are all of the account's messages.
+     */
+    private static class Snapshot {
+        final Message[] messages;
+        final boolean complete;
+
+        Snapshot(Message[] messages, boolean complete) {
+            this.messages = messages;
+            this.complete = complete;
+        }
+    }
+
+    private class Timeline {
+        volatile Snapshot snapshot;
+        volatile long lastAccess = System.nanoTime();
+
+        /**
+         * Writes that arrive before the load are skipped: they have already been committed, so the load sees them.
+         */
+        synchronized Snapshot load(int accountId, IntFunction<List<Message>> loader) {
+            if (snapshot != null)
+                return snapshot;
+            List<Message> newest = new ArrayList<>(loader.apply(accountId));
+            boolean complete = newest.size() <= maxMessagesPerTimeline;
+            if (!complete)
+                newest = newest.subList(0, maxMessagesPerTimeline);
+            Collections.reverse(newest);
+            snapshot = new Snapshot(newest.toArray(new Message[0]), complete);
+            return snapshot;
+        }
+
+        synchronized void upsert(Message message) {
+            Snapshot current = snapshot;
+            if (current == null)
+                return;
+            Message[] messages = current.messages;
+            int index = Arrays.binarySearch(messages, message, BY_ID);
+            if (index >= 0) {
+                Message[] updated = messages.clone();
+                updated[index] = message;
+                snapshot = new Snapshot(updated, current.complete);
+                return;
+            }
+            int insertAt = -index - 1;
+            boolean complete = current.complete;
+            if (!complete && insertAt == 0)
+                return;
+            Message[] grown = new Message[messages.length + 1];
+            System.arraycopy(messages, 0, grown, 0, insertAt);
+            grown[insertAt] = message;
+            System.arraycopy(messages, insertAt, grown, insertAt + 1, messages.length - insertAt);
+            if (grown.length > maxMessagesPerTimeline) {
+                grown = Arrays.copyOfRange(grown, grown.length - maxMessagesPerTimeline, grown.length);
+                complete = false;
+            }
+            snapshot = new Snapshot(grown, complete);
+        }
+
+        synchronized void remove(int messageId) {
+            Snapshot current = snapshot;
+            if (current == null)
+                return;
+            Message[] messages = current.messages;
+            int index = Arrays.binarySearch(messages, new Message(messageId, 0, null, 0), BY_ID);
+            if (index < 0)
+                return;
+            Message[] shrunk = new Message[messages.length - 1];
+            System.arraycopy(messages, 0, shrunk, 0, index);
+            System.arraycopy(messages, index + 1, shrunk, index, messages.length - index - 1);
+            // an empty window that is not complete says nothing about older messages, so reload it on the next read
+            snapshot = shrunk.length == 0 && !current.complete ? null : new Snapshot(shrunk, current.complete);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package Service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Version numbers for entities, bumped every time an entity changes, so a reader can tell whether something it saw
+ * earlier is still current without reading the entity again.
+ *
+ * Versions are striped: ids share a fixed array of counters, so memory stays bounded however many ids there are. When
+ * two ids land on the same stripe a change to one also bumps the other. That only costs the other id a needless
+ * re-read; a change is never missed. Consecutive ids fall on different stripes until the array wraps.
+ */
+public class VersionCounters {
+    private final AtomicLongArray versions;
+    private final int mask;
+
+    /**
+     * @param stripes number of counters, rounded up to a power of two
+     */
+    public VersionCounters(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.versions = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param id entity id
+     * @return the current version of the entity; read it before reading the entity itself
+     */
+    public long get(int id) {
+        return versions.get(id & mask);
+    }
+
+    /**
+     * Record a change to an entity; call it after the change is visible to readers.
+     * @param id entity id
+     */
+    public void bump(int id) {
+        versions.incrementAndGet(id & mask);
+    }
+}
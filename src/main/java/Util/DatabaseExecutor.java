@@ -0,0 +1,93 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The executor that runs blocking service and DAO work off the HTTP threads.
+ *
+ * It has exactly as many threads as the connection pool has connections, so work that reaches a thread can always get
+ * a connection without waiting, and a bounded queue in front of them. When the queue is full new work is rejected
+ * immediately with a RejectedExecutionException rather than queued, which lets the caller shed load with a fast error
+ * instead of letting latency grow until requests time out. The queue length can be set with
+ * socialmedia.dbExecutor.queueSize.
+ */
+public class DatabaseExecutor {
+    /**
+     * Seconds a rejected client is asked to wait before retrying, set with socialmedia.dbExecutor.retryAfterSeconds
+     */
+    public static final int RETRY_AFTER_SECONDS = Integer.getInteger("socialmedia.dbExecutor.retryAfterSeconds", 1);
+
+    private static final int threads = ConnectionUtil.getPoolStats().maxSize;
+    private static final int queueSize = Integer.getInteger("socialmedia.dbExecutor.queueSize", threads * 32);
+    private static final LongAdder rejected = new LongAdder();
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "db-executor-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, pool) -> {
+                rejected.increment();
+                throw new RejectedExecutionException("Database executor queue is full (" + queueSize + " waiting)");
+            });
+
+    private DatabaseExecutor() {
+    }
+
+    /**
+     * Run blocking work on a database thread.
+     * @param work the work, typically a service call
+     * @return a future completed with the work's result, or exceptionally if it throws
+     * @throws RejectedExecutionException if the queue is full; the work has not been started
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> work) {
+        return CompletableFuture.supplyAsync(work, executor);
+    }
+
+    /**
+     * Run short follow-up work on a database thread, e.g. completing a future whose callbacks write a response.
+     * @param work the work
+     * @throws RejectedExecutionException if the queue is full; the work has not been started
+     */
+    public static void execute(Runnable work) {
+        executor.execute(work);
+    }
+
+    /**
+     * @return number of tasks waiting for a thread
+     */
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return maximum number of tasks that may wait for a thread
+     */
+    public static int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return number of threads currently running a task
+     */
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of tasks rejected because the queue was full
+     */
+    public static long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,13 @@
+package Util;
+
+/**
+ * Thrown when no database connection can be borrowed, because the pool stayed exhausted for longer than its acquire
+ * timeout or a new connection could not be opened. It is unchecked so that it passes through the DAOs, which only
+ * handle the SQLExceptions of the queries they run, and reaches the controller, which answers 503 (Service
+ * Unavailable) instead of the request failing on a missing connection.
+ */
+public class DatabaseUnavailableException extends RuntimeException {
+    public DatabaseUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,71 @@
+package Util;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-bucket latency histogram that can be recorded into from any number of threads without locking.
+ *
+ * Every bucket is a LongAdder, so concurrent recordings touch different cells instead of contending on one counter.
+ * Reads are not atomic across buckets; a snapshot taken while requests are being recorded may be off by the few
+ * recordings in flight, which is acceptable for monitoring.
+ */
+public class LatencyHistogram {
+    /**
+     * Upper bounds of the buckets in nanoseconds, from 100 microseconds to 10 seconds. Anything slower lands in the
+     * overflow bucket.
+     */
+    static final long[] BOUNDS_NANOS = {
+            100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L,
+            10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+    /**
+     * The bounds in seconds as plain decimal strings, ready to use as Prometheus "le" label values.
+     */
+    static final String[] BOUNDS_SECONDS = new String[BOUNDS_NANOS.length];
+
+    static {
+        for (int i = 0; i < BOUNDS_NANOS.length; i++)
+            BOUNDS_SECONDS[i] = BigDecimal.valueOf(BOUNDS_NANOS[i], 9).stripTrailingZeros().toPlainString();
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * @param nanos duration of one observation
+     */
+    public void record(long nanos) {
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i])
+            i++;
+        buckets[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return cumulative counts: element i is the number of observations at or below BOUNDS_NANOS[i], and the last
+     * element is the total count
+     */
+    public long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long running = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            running += buckets[i].sum();
+            counts[i] = running;
+        }
+        return counts;
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+}
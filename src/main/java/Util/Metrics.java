@@ -0,0 +1,159 @@
+package Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide database metrics and helpers for writing the Prometheus text exposition format.
+ *
+ * DAOs register one QueryMetrics per method in a static field and record into it on every call. The connection pool
+ * and statement cache statistics come from ConnectionUtil. Everything here is recorded with LongAdders, so
+ * instrumented code paths never take a lock.
+ */
+public class Metrics {
+    private static final Map<String, QueryMetrics> queries = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Latency and error counts for one DAO method.
+     */
+    public static class QueryMetrics {
+        private final String dao;
+        private final String method;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private QueryMetrics(String dao, String method) {
+            this.dao = dao;
+            this.method = method;
+        }
+
+        /**
+         * Record one call that started at startNanos and has just finished.
+         * @param startNanos System.nanoTime() taken when the call started
+         */
+        public void record(long startNanos) {
+            latency.record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Count one call that failed with an SQLException.
+         */
+        public void error() {
+            errors.increment();
+        }
+    }
+
+    /**
+     * @param dao simple name of the DAO class
+     * @param method name of the DAO method
+     * @return the metrics for that method, created on first use
+     */
+    public static QueryMetrics query(String dao, String method) {
+        return queries.computeIfAbsent(dao + "." + method, key -> new QueryMetrics(dao, method));
+    }
+
+    /**
+     * Append the database query, connection pool and database executor metrics in Prometheus text format.
+     * @param out destination
+     */
+    public static void writeDatabaseMetrics(StringBuilder out) {
+        family(out, "db_query_duration_seconds", "histogram",
+                "Time spent in each DAO method that went to the database, including connection acquisition.");
+        for (QueryMetrics query : queries.values())
+            histogram(out, "db_query_duration_seconds", labels("dao", query.dao, "method", query.method),
+                    query.latency);
+
+        family(out, "db_query_errors_total", "counter", "DAO calls that failed with an SQLException.");
+        for (QueryMetrics query : queries.values())
+            sample(out, "db_query_errors_total", labels("dao", query.dao, "method", query.method), query.errors.sum());
+
+        ConnectionPool.PoolStats pool = ConnectionUtil.getPoolStats();
+        family(out, "db_pool_connections", "gauge", "Connections in the pool by state.");
+        sample(out, "db_pool_connections", labels("state", "active"), pool.active);
+        sample(out, "db_pool_connections", labels("state", "idle"), pool.idle);
+        family(out, "db_pool_max_connections", "gauge", "Maximum size of the connection pool.");
+        sample(out, "db_pool_max_connections", "", pool.maxSize);
+        family(out, "db_pool_waiting_threads", "gauge", "Threads currently waiting for a connection.");
+        sample(out, "db_pool_waiting_threads", "", pool.waiting);
+        family(out, "db_pool_acquire_wait_seconds", "histogram", "Time spent waiting to borrow a connection.");
+        histogram(out, "db_pool_acquire_wait_seconds", "", ConnectionUtil.getAcquireWaitHistogram());
+        family(out, "db_pool_acquire_timeouts_total", "counter", "Connection requests that timed out.");
+        sample(out, "db_pool_acquire_timeouts_total", "", pool.timeoutCount);
+        family(out, "db_pool_leaks_total", "counter", "Connections held longer than the leak threshold.");
+        sample(out, "db_pool_leaks_total", "", pool.leakCount);
+        family(out, "db_statement_cache_requests_total", "counter",
+                "prepareStatement() calls answered from a connection's statement cache (hit) or prepared (miss).");
+        sample(out, "db_statement_cache_requests_total", labels("result", "hit"), pool.statementCacheHits);
+        sample(out, "db_statement_cache_requests_total", labels("result", "miss"), pool.statementCacheMisses);
+        family(out, "db_statement_cache_evictions_total", "counter",
+                "Cached prepared statements closed to keep a connection's cache within its size.");
+        sample(out, "db_statement_cache_evictions_total", "", pool.statementCacheEvictions);
+
+        family(out, "db_executor_active_threads", "gauge", "Database executor threads running a task.");
+        sample(out, "db_executor_active_threads", "", DatabaseExecutor.getActiveCount());
+        family(out, "db_executor_queue_depth", "gauge", "Tasks waiting for a database executor thread.");
+        sample(out, "db_executor_queue_depth", "", DatabaseExecutor.getQueueDepth());
+        family(out, "db_executor_queue_size", "gauge", "Capacity of the database executor queue.");
+        sample(out, "db_executor_queue_size", "", DatabaseExecutor.getQueueSize());
+        family(out, "db_executor_rejected_total", "counter", "Tasks rejected because the executor queue was full.");
+        sample(out, "db_executor_rejected_total", "", DatabaseExecutor.getRejectedCount());
+    }
+
+    /**
+     * Append the HELP and TYPE lines that introduce a metric family.
+     */
+    public static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Append one sample line.
+     * @param labels labels without braces as built by labels(), or "" for none
+     */
+    public static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty())
+            out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value))
+            out.append((long) value);
+        else
+            out.append(value);
+        out.append('\n');
+    }
+
+    /**
+     * Append the _bucket, _sum and _count samples of a histogram, with bounds in seconds.
+     * @param labels labels without braces as built by labels(), or "" for none
+     */
+    public static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] counts = histogram.cumulativeCounts();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < LatencyHistogram.BOUNDS_NANOS.length; i++)
+            sample(out, name + "_bucket", prefix + "le=\"" + LatencyHistogram.BOUNDS_SECONDS[i] + "\"", counts[i]);
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", counts[counts.length - 1]);
+        sample(out, name + "_sum", labels, histogram.getSumNanos() / 1e9);
+        sample(out, name + "_count", labels, counts[counts.length - 1]);
+    }
+
+    /**
+     * @param namesAndValues alternating label names and values
+     * @return the labels in Prometheus syntax, without the surrounding braces
+     */
+    public static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0)
+                labels.append(',');
+            labels.append(namesAndValues[i]).append("=\"")
+                    .append(namesAndValues[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return labels.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The executor that runs password hashing and verification, which is deliberately slow CPU work.
+ *
+ * It is kept apart from the HTTP threads and the DatabaseExecutor so a burst of registrations or logins can only use
+ * its own threads: by default half the cores, so the rest stay free for serving reads. Like the DatabaseExecutor it has
+ * a bounded queue and rejects work with a RejectedExecutionException once the queue is full, which the controller
+ * answers with 503. The thread count and queue length can be set with socialmedia.passwordHash.threads and
+ * socialmedia.passwordHash.queueSize.
+ */
+public class PasswordHashExecutor {
+    private static final int threads = Integer.getInteger("socialmedia.passwordHash.threads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int queueSize = Integer.getInteger("socialmedia.passwordHash.queueSize", threads * 16);
+    private static final LongAdder rejected = new LongAdder();
+    private static final LatencyHistogram queueWait = new LatencyHistogram();
+    private static final LatencyHistogram duration = new LatencyHistogram();
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+            60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+            runnable -> {
+                Thread thread = new Thread(runnable, "password-hash-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            (runnable, pool) -> {
+                rejected.increment();
+                throw new RejectedExecutionException("Password hash queue is full (" + queueSize + " waiting)");
+            });
+
+    private PasswordHashExecutor() {
+    }
+
+    /**
+     * Run a hash or verification on a password hashing thread.
+     * @param work the hashing work
+     * @return a future completed with the work's result, or exceptionally if it throws
+     * @throws RejectedExecutionException if the queue is full; the work has not been started
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> work) {
+        long queued = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            queueWait.record(start - queued);
+            try {
+                return work.get();
+            }
+            finally {
+                duration.record(System.nanoTime() - start);
+            }
+        }, executor);
+    }
+
+    /**
+     * @return number of tasks waiting for a thread
+     */
+    public static int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return maximum number of tasks that may wait for a thread
+     */
+    public static int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return number of threads currently hashing
+     */
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of tasks rejected because the queue was full
+     */
+    public static long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return distribution of the time tasks waited in the queue
+     */
+    public static LatencyHistogram getQueueWaitHistogram() {
+        return queueWait;
+    }
+
+    /**
+     * @return distribution of the time each hash or verification took to run
+     */
+    public static LatencyHistogram getDurationHistogram() {
+        return duration;
+    }
+}
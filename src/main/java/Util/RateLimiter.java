@@ -0,0 +1,179 @@
+package Util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket per key, e.g. per client IP or per username, with bounded memory.
+ *
+ * Each bucket holds up to burst tokens and refills at tokensPerSecond. It is kept in the equivalent GCRA form, as a
+ * single "theoretical arrival time" in an AtomicLong, so taking a token is one compare-and-set and never blocks. A
+ * bucket whose arrival time has passed is full, which is the same as having no bucket at all, so idle keys can be
+ * dropped without losing anything.
+ *
+ * Keys are spread over stripes, each a map with its own share of maxKeys. While a stripe is full, for example while a
+ * client sprays random keys, new keys are not tracked on their own but hashed onto a fixed set of overflow buckets, so
+ * memory stays bounded and a sprayer only uses up the allowance of the overflow buckets its keys hash to, not that of
+ * every new client. A full stripe drops its idle keys at most once per refill time of a bucket, since sweeping more
+ * often cannot find more of them idle, and every stripe is also swept once a minute while it is in use.
+ */
+public class RateLimiter {
+    private static final int STRIPES = 16;
+    private static final int OVERFLOW_BITS = 6;
+    private static final int OVERFLOW_BUCKETS = 1 << OVERFLOW_BITS;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String name;
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int burst;
+    private final int maxKeysPerStripe;
+    private final long fullSweepIntervalNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong[] overflow = new AtomicLong[OVERFLOW_BUCKETS];
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private static class Stripe {
+        final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+        final AtomicBoolean sweeping = new AtomicBoolean();
+        volatile long lastSweep = System.nanoTime();
+    }
+
+    /**
+     * @param name identifies the limiter in metrics
+     * @param tokensPerSecond sustained rate allowed per key
+     * @param burst requests a key may make at once after being idle
+     * @param maxKeys most keys tracked at once
+     */
+    public RateLimiter(String name, double tokensPerSecond, int burst, int maxKeys) {
+        if (tokensPerSecond <= 0 || burst < 1)
+            throw new IllegalArgumentException("rate and burst must be positive");
+        this.name = name;
+        this.emissionIntervalNanos = Math.max(1, (long) (1e9 / tokensPerSecond));
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.burst = burst;
+        this.maxKeysPerStripe = Math.max(1, maxKeys / STRIPES);
+        this.fullSweepIntervalNanos = Math.min(SWEEP_INTERVAL_NANOS, emissionIntervalNanos * burst);
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+        for (int i = 0; i < OVERFLOW_BUCKETS; i++)
+            overflow[i] = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * Take a token for a key.
+     * @param key who is making the request
+     * @return 0 if the request is allowed, otherwise the milliseconds until the key will have a token again
+     */
+    public long tryAcquire(String key) {
+        return tryAcquire(key, 1);
+    }
+
+    /**
+     * Take several tokens for a key at once, e.g. one per message of a batch. A request for more tokens than the burst
+     * is allowed once the bucket is full and leaves the key in debt: it gets no further tokens until the excess has
+     * been paid back at the sustained rate, so batching never raises the rate a key can sustain.
+     * @param key who is making the request
+     * @param permits number of tokens to take, at least 1
+     * @return 0 if the request is allowed, otherwise the milliseconds until the key will have the tokens again
+     */
+    public long tryAcquire(String key, int permits) {
+        if (permits < 1)
+            throw new IllegalArgumentException("permits must be positive");
+        long now = System.nanoTime();
+        int hash = key.hashCode();
+        Stripe stripe = stripes[(hash & 0x7fffffff) % STRIPES];
+        AtomicLong bucket = stripe.buckets.get(key);
+        if (bucket == null)
+            bucket = track(stripe, key, hash, now);
+        while (true) {
+            long arrival = bucket.get();
+            long base = arrival == Long.MIN_VALUE || arrival - now < 0 ? now : arrival;
+            // base - now is how far the key has drawn ahead of its rate; up to burst - 1 intervals are allowed
+            long wait = base + emissionIntervalNanos * (Math.min(permits, burst) - 1) - now - burstToleranceNanos;
+            if (wait > 0) {
+                rejected.increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+            if (bucket.compareAndSet(arrival, base + emissionIntervalNanos * permits)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    private AtomicLong track(Stripe stripe, String key, int hash, long now) {
+        boolean full = stripe.buckets.size() >= maxKeysPerStripe;
+        if (now - stripe.lastSweep > (full ? fullSweepIntervalNanos : SWEEP_INTERVAL_NANOS)) {
+            sweep(stripe, now);
+            full = stripe.buckets.size() >= maxKeysPerStripe;
+        }
+        // scramble the hash so that keys like client1, client2, whose hashes are consecutive, spread over the buckets
+        if (full)
+            return overflow[(hash * 0x9E3779B9) >>> (Integer.SIZE - OVERFLOW_BITS)];
+        return stripe.buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+    }
+
+    /**
+     * Drop every bucket of a stripe that has refilled completely. Only one thread sweeps a stripe at a time; the others
+     * carry on without waiting.
+     */
+    private void sweep(Stripe stripe, long now) {
+        if (!stripe.sweeping.compareAndSet(false, true))
+            return;
+        try {
+            stripe.lastSweep = now;
+            sweeps.increment();
+            Iterator<AtomicLong> it = stripe.buckets.values().iterator();
+            while (it.hasNext()) {
+                long arrival = it.next().get();
+                if (arrival == Long.MIN_VALUE || arrival - now <= 0)
+                    it.remove();
+            }
+        }
+        finally {
+            stripe.sweeping.set(false);
+        }
+    }
+
+    /**
+     * @return number of keys currently tracked
+     */
+    public int getKeyCount() {
+        int count = 0;
+        for (Stripe stripe : stripes)
+            count += stripe.buckets.size();
+        return count;
+    }
+
+    /**
+     * @return number of times a stripe has been swept for idle keys
+     */
+    public long getSweepCount() {
+        return sweeps.sum();
+    }
+
+    /**
+     * Append the metrics of a set of limiters in Prometheus text format.
+     * @param out destination
+     * @param limiters the limiters, labelled by name
+     */
+    public static void writeMetrics(StringBuilder out, Iterable<RateLimiter> limiters) {
+        Metrics.family(out, "rate_limit_requests_total", "counter", "Requests checked by each rate limit, by result.");
+        for (RateLimiter limiter : limiters) {
+            Metrics.sample(out, "rate_limit_requests_total",
+                    Metrics.labels("policy", limiter.name, "result", "allowed"), limiter.allowed.sum());
+            Metrics.sample(out, "rate_limit_requests_total",
+                    Metrics.labels("policy", limiter.name, "result", "rejected"), limiter.rejected.sum());
+        }
+        Metrics.family(out, "rate_limit_keys", "gauge", "Keys each rate limit is currently tracking.");
+        for (RateLimiter limiter : limiters)
+            Metrics.sample(out, "rate_limit_keys", Metrics.labels("policy", limiter.name), limiter.getKeyCount());
+    }
+}
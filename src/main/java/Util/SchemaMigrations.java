@@ -0,0 +1,137 @@
+package Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.h2.tools.RunScript;
+
+/**
+ * Brings the database schema up to date when the application starts.
+ *
+ * Migrations are SQL scripts in src/main/resources/db/migration named V{version}__{description}.sql and listed in
+ * MIGRATIONS in the order they apply. Each applied migration is recorded in the schema_migrations table with a
+ * SHA-256 checksum of its script; on every start the scripts that were already applied are checked against their
+ * recorded checksums, and startup fails if one has been edited, since the database would no longer match what the
+ * files describe. Add a new migration rather than changing an old one.
+ *
+ * This is separate from ConnectionUtil.resetTestDatabase, which rebuilds the tables from SocialMedia.sql for tests.
+ * That script also drops schema_migrations, so running migrate() after a reset applies every migration again.
+ */
+public class SchemaMigrations {
+    private static final String LOCATION = "db/migration/";
+    /**
+     * Every migration, oldest first. Versions must be consecutive starting at 1.
+     */
+    private static final String[] MIGRATIONS = {
+            "V1__baseline.sql",
+            "V2__message_posted_by_index.sql",
+            "V3__message_time_posted_keyset_indexes.sql",
+    };
+
+    private SchemaMigrations() {
+    }
+
+    /**
+     * Verify the applied migrations and apply any pending ones, in version order.
+     * @return number of migrations applied
+     * @throws IllegalStateException if a migration cannot be read or applied, or an applied one has been changed
+     */
+    public static int migrate() {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            return migrate(connection);
+        }
+        catch (SQLException e) {
+            throw new IllegalStateException("Could not migrate the database schema", e);
+        }
+    }
+
+    /**
+     * Verify the applied migrations and apply any pending ones on the given database, in version order.
+     * @param connection connection to the database to migrate; left open
+     * @return number of migrations applied
+     * @throws IllegalStateException if a migration cannot be read or applied, or an applied one has been changed
+     */
+    public static int migrate(Connection connection) {
+        try {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                        "version int primary key, " +
+                        "description varchar(255), " +
+                        "checksum varchar(64), " +
+                        "applied_at timestamp default current_timestamp);");
+            }
+            Map<Integer, String> applied = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT version, checksum FROM schema_migrations;")) {
+                while (rs.next())
+                    applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+
+            int count = 0;
+            for (int i = 0; i < MIGRATIONS.length; i++) {
+                String file = MIGRATIONS[i];
+                int version = i + 1;
+                if (!file.startsWith("V" + version + "__"))
+                    throw new IllegalStateException("Migration " + file + " should be version " + version);
+                String script = read(file);
+                String checksum = checksum(script);
+                String recorded = applied.get(version);
+                if (recorded != null) {
+                    if (!recorded.equals(checksum))
+                        throw new IllegalStateException("Migration " + file + " has changed since it was applied");
+                    continue;
+                }
+
+                RunScript.execute(connection, new StringReader(script));
+                try (PreparedStatement preparedStatement = connection.prepareStatement(
+                        "INSERT INTO schema_migrations (version, description, checksum) VALUES (?, ?, ?);")) {
+                    preparedStatement.setInt(1, version);
+                    preparedStatement.setString(2, file.substring(file.indexOf("__") + 2, file.length() - 4));
+                    preparedStatement.setString(3, checksum);
+                    preparedStatement.executeUpdate();
+                }
+                System.out.println("Applied migration " + file);
+                count++;
+            }
+            return count;
+        }
+        catch (SQLException e) {
+            throw new IllegalStateException("Could not migrate the database schema", e);
+        }
+    }
+
+    private static String read(String file) {
+        try (InputStream in = SchemaMigrations.class.getClassLoader().getResourceAsStream(LOCATION + file)) {
+            if (in == null)
+                throw new IllegalStateException("Migration " + file + " is missing from " + LOCATION);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Could not read migration " + file, e);
+        }
+    }
+
+    private static String checksum(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
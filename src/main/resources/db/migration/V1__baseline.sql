@@ -0,0 +1,14 @@
+-- Tables as originally created by SocialMedia.sql. IF NOT EXISTS lets this run against databases created before
+-- migrations existed.
+create table if not exists account (
+    account_id int primary key auto_increment,
+    username varchar(255) unique,
+    password varchar(255)
+);
+create table if not exists message (
+    message_id int primary key auto_increment,
+    posted_by int,
+    message_text varchar(255),
+    time_posted_epoch bigint,
+    foreign key (posted_by) references  account(account_id)
+);
@@ -0,0 +1,4 @@
+-- Per-account listings and pages filter on posted_by and order by message_id. H2 backs the foreign key with an index
+-- on posted_by alone, which finds the rows but still has to sort them; this one returns them already in order, so a
+-- LIMIT stops after the first rows.
+create index if not exists message_posted_by_message_id_idx on message (posted_by, message_id);
@@ -0,0 +1,7 @@
+-- Time-range listings order by (time_posted_epoch, message_id) and page with that pair as the cursor. With the
+-- message_id in the index H2 returns the rows already in that order, so a LIMIT stops after the first rows instead of
+-- sorting the whole range. The per-account variant lets an account's time range be read without visiting other
+-- accounts' rows.
+create index if not exists message_time_posted_epoch_message_id_idx on message (time_posted_epoch, message_id);
+create index if not exists message_posted_by_time_posted_epoch_idx
+    on message (posted_by, time_posted_epoch, message_id);
@@ -0,0 +1,113 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import Model.Account;
+import Util.ConnectionUtil;
+
+public class AccountDAOTest {
+    AccountDAO accountDAO;
+
+    /**
+     * Before every test, reset the database and create a new DAO, which loads its indexes from it.
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        accountDAO = new AccountDAO();
+    }
+
+    /**
+     * Change the account table behind the DAO's back, the way another process would
+     */
+    private static void execute(String sql, Object... parameters) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++)
+                statement.setObject(i + 1, parameters[i]);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Rename the seeded account in the database after the DAO has been created, then look it up
+     *
+     * Expected Result:
+     *  The lookups are answered from the indexes loaded when the DAO was created, so they still see the old username
+     */
+    @Test
+    public void warmUpLoadsExistingAccounts() throws SQLException {
+        execute("UPDATE account SET username = ? WHERE account_id = ?;", "renamed", 1);
+
+        Assert.assertTrue(accountDAO.accountExists(1));
+        Account account = accountDAO.getAccountByUsername("testuser1");
+        Assert.assertNotNull(account);
+        Assert.assertEquals(1, account.getAccount_id());
+    }
+
+    /**
+     * Add an account through the DAO, rename it in the database, then look it up
+     *
+     * Expected Result:
+     *  The new account was indexed when it was added, so it is found under the username it was registered with
+     */
+    @Test
+    public void addedAccountsAreIndexed() throws SQLException {
+        Account added = accountDAO.addAccount(new Account("newuser", "password"));
+        Assert.assertNotNull(added);
+        execute("UPDATE account SET username = ? WHERE account_id = ?;", "renamed", added.getAccount_id());
+
+        Assert.assertTrue(accountDAO.accountExists(added.getAccount_id()));
+        Assert.assertEquals(added, accountDAO.getAccountByUsername("newuser"));
+    }
+
+    /**
+     * Insert an account directly into the database after the DAO has been created, look it up, then rename it in the
+     * database and look it up again
+     *
+     * Expected Result:
+     *  The first lookups miss the indexes and find the account in the database; they index it, so the second lookups
+     *  still find it under its old username. Usernames and ids that do not exist are not found.
+     */
+    @Test
+    public void missesFallBackToDatabase() throws SQLException {
+        execute("INSERT INTO account (account_id, username, password) VALUES (?, ?, ?);", 50, "elsewhere", "password");
+
+        Assert.assertTrue(accountDAO.accountExists(50));
+        Account account = accountDAO.getAccountByUsername("elsewhere");
+        Assert.assertNotNull(account);
+        Assert.assertEquals(50, account.getAccount_id());
+
+        execute("UPDATE account SET username = ? WHERE account_id = ?;", "renamed", 50);
+        Assert.assertEquals(account, accountDAO.getAccountByUsername("elsewhere"));
+        Assert.assertNull(accountDAO.getAccountByUsername("nobody"));
+        Assert.assertFalse(accountDAO.accountExists(51));
+    }
+
+    /**
+     * Ask which of a mix of ids exist: one loaded at warm-up, one added through the DAO, one inserted directly into the
+     * database and two that do not exist, then delete the directly inserted account's row and ask again
+     *
+     * Expected Result:
+     *  The three existing ids are returned; the one found in the database is indexed, so the second call still
+     *  returns it after its row has been deleted
+     */
+    @Test
+    public void existingAccountIdsMixesHitsAndMisses() throws SQLException {
+        int added = accountDAO.addAccount(new Account("newuser", "password")).getAccount_id();
+        execute("INSERT INTO account (account_id, username, password) VALUES (?, ?, ?);", 50, "elsewhere", "password");
+
+        Assert.assertEquals(Set.of(1, added, 50), accountDAO.existingAccountIds(List.of(1, added, 50, 51, 5000)));
+
+        execute("DELETE FROM account WHERE account_id = ?;", 50);
+        Assert.assertEquals(Set.of(1, 50), accountDAO.existingAccountIds(List.of(1, 50, 51)));
+        Assert.assertEquals(Set.of(), accountDAO.existingAccountIds(List.of(51, 5000)));
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ConcurrentBitSet;
+
+public class ConcurrentBitSetTest {
+    /**
+     * Add ids far above the current size of a set that holds 64 ids
+     *
+     * Expected Result:
+     *  The set grows to hold them, keeps the ids added before and contains nothing else
+     */
+    @Test
+    public void growsForIdsAboveSize() {
+        ConcurrentBitSet set = new ConcurrentBitSet(64);
+        set.add(3);
+        set.add(63);
+        set.add(64);
+        set.add(1_000_000);
+
+        Assert.assertTrue(set.contains(3));
+        Assert.assertTrue(set.contains(63));
+        Assert.assertTrue(set.contains(64));
+        Assert.assertTrue(set.contains(1_000_000));
+        Assert.assertFalse(set.contains(4));
+        Assert.assertFalse(set.contains(999_999));
+        Assert.assertFalse(set.contains(2_000_000));
+        Assert.assertFalse(set.contains(-1));
+    }
+
+    /**
+     * Start four threads at once on a set that holds 64 ids, each adding every eighth id from its own offset up to
+     * 200000 in rising order, so each thread keeps setting bits in the array that another thread is replacing; repeat a
+     * few times
+     *
+     * Expected Result:
+     *  No id is lost while the array is copied and folded in again, and no other id is added
+     */
+    @Test
+    public void concurrentAddsSurviveGrowth() throws InterruptedException {
+        int threads = 4;
+        int ids = 200_000;
+        for (int round = 0; round < 5; round++) {
+            ConcurrentBitSet set = new ConcurrentBitSet(64);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                Thread writer = new Thread(() -> {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int id = first; id < ids; id += threads * 2)
+                        set.add(id);
+                });
+                writer.start();
+                writers.add(writer);
+            }
+            start.countDown();
+            for (Thread writer : writers)
+                writer.join();
+
+            for (int id = 0; id < ids + 64; id++)
+                Assert.assertEquals("id " + id, id % (threads * 2) < threads && id < ids, set.contains(id));
+        }
+    }
+}
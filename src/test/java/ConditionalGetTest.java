@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path));
+        if (ifNoneMatch != null)
+            request.header("If-None-Match", ifNoneMatch);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String etag(HttpResponse<String> response) {
+        return response.headers().firstValue("ETag").orElse(null);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1, then again with If-None-Match set to the ETag it
+     * returned
+     *
+     * Expected Response:
+     *  Status Code: 304
+     *  Response Body: empty, with the same ETag
+     */
+    @Test
+    public void getMessageNotModified() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null);
+        Assert.assertEquals(200, first.statusCode());
+        Assert.assertNotNull(etag(first));
+
+        HttpResponse<String> second = get("/messages/1", etag(first));
+        Assert.assertEquals(304, second.statusCode());
+        Assert.assertEquals("", second.body());
+        Assert.assertEquals(etag(first), etag(second));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1, then PATCH localhost:8080/messages/1, then GET
+     * localhost:8080/messages/1 with If-None-Match set to the first ETag
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the updated message, with a new ETag
+     */
+    @Test
+    public void getMessageModifiedAfterUpdate() throws IOException, InterruptedException {
+        String etag = etag(get("/messages/1", null));
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated message\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpResponse<String> response = get("/messages/1", etag);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().contains("updated message"));
+        Assert.assertNotEquals(etag, etag(response));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages, then POST localhost:8080/messages for
+     * account 1, then GET localhost:8080/accounts/1/messages with If-None-Match set to the first ETag twice
+     *
+     * Expected Response:
+     *  Status Code: 304 before the post, 200 with the new message after it
+     */
+    @Test
+    public void getTimelineModifiedAfterPost() throws IOException, InterruptedException {
+        String etag = etag(get("/accounts/1/messages", null));
+        Assert.assertEquals(304, get("/accounts/1/messages", etag).statusCode());
+
+        HttpRequest post = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"hello message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpResponse<String> response = get("/accounts/1/messages", etag);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.body().contains("hello message"));
+    }
+}
@@ -0,0 +1,253 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+
+public class ConnectionPoolTest {
+    private static ConnectionPool pool(int maxSize, long acquireTimeoutMillis, long leakThresholdMillis) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pool" + System.nanoTime());
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        return new ConnectionPool(dataSource, maxSize, 0, acquireTimeoutMillis, 0, leakThresholdMillis, 1, 0);
+    }
+
+    /**
+     * Borrow every connection, then ask for one more from another thread and return one of the borrowed ones
+     *
+     * Expected Result:
+     *  The extra request waits while the pool is exhausted and gets the returned connection
+     */
+    @Test
+    public void exhaustedPoolBlocksUntilReturn() throws Exception {
+        ConnectionPool pool = pool(2, 5000, 0);
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.getConnection();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        for (int i = 0; i < 100 && pool.getStats().waiting == 0; i++)
+            Thread.sleep(10);
+        Assert.assertEquals(1, pool.getStats().waiting);
+        Assert.assertFalse(waiting.isDone());
+
+        first.close();
+        Connection third = waiting.get(5, TimeUnit.SECONDS);
+        Assert.assertFalse(third.isClosed());
+        Assert.assertEquals(2, pool.getStats().active);
+        Assert.assertEquals(2, pool.getStats().createdCount);
+        second.close();
+        third.close();
+        Assert.assertEquals(0, pool.getStats().active);
+    }
+
+    /**
+     * Borrow every connection, then ask for one more
+     *
+     * Expected Result:
+     *  The request fails with an SQLException after the acquire timeout and is counted as a timeout
+     */
+    @Test
+    public void exhaustedPoolTimesOut() throws Exception {
+        ConnectionPool pool = pool(1, 100, 0);
+        try (Connection connection = pool.getConnection()) {
+            long start = System.nanoTime();
+            try {
+                pool.getConnection();
+                Assert.fail("expected a timeout");
+            } catch (SQLException expected) {
+                Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            Assert.assertEquals(1, pool.getStats().timeoutCount);
+        }
+    }
+
+    /**
+     * Close the same borrowed connection twice
+     *
+     * Expected Result:
+     *  The second close is ignored: the pool still hands out no more than maxSize connections
+     */
+    @Test
+    public void doubleReturnReleasesOnce() throws Exception {
+        ConnectionPool pool = pool(1, 100, 0);
+        Connection connection = pool.getConnection();
+        connection.close();
+        connection.close();
+        Assert.assertTrue(connection.isClosed());
+        Assert.assertEquals(0, pool.getStats().active);
+        Assert.assertEquals(1, pool.getStats().idle);
+
+        try (Connection again = pool.getConnection()) {
+            try {
+                pool.getConnection();
+                Assert.fail("expected a timeout");
+            } catch (SQLException expected) {
+                Assert.assertEquals(1, pool.getStats().timeoutCount);
+            }
+            try {
+                connection.createStatement();
+                Assert.fail("expected the returned connection to be unusable");
+            } catch (SQLException expected) {
+                Assert.assertFalse(again.isClosed());
+            }
+        }
+    }
+
+    /**
+     * Hold a connection past the leak threshold
+     *
+     * Expected Result:
+     *  The housekeeper reports it once; with leak detection off nothing is reported
+     */
+    @Test
+    public void leaksAreReportedOnce() throws Exception {
+        ConnectionPool pool = pool(2, 100, 50);
+        ConnectionPool disabled = pool(2, 100, 0);
+        try (Connection held = pool.getConnection(); Connection alsoHeld = disabled.getConnection()) {
+            for (int i = 0; i < 300 && pool.getStats().leakCount == 0; i++)
+                Thread.sleep(10);
+            Assert.assertEquals(1, pool.getStats().leakCount);
+            Thread.sleep(1200);
+            Assert.assertEquals(1, pool.getStats().leakCount);
+            Assert.assertEquals(0, disabled.getStats().leakCount);
+        }
+    }
+
+    private static ConnectionPool cachingPool(int statementCacheSize) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:pool" + System.nanoTime());
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        return new ConnectionPool(dataSource, 1, 0, 1000, 0, 0, 1, statementCacheSize);
+    }
+
+    private static int selectOne(Connection connection, String sql, int value) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, value);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Prepare the same SQL on two borrows of the same connection
+     *
+     * Expected Result:
+     *  The second borrow is answered from the statement cache, with the parameters of the first cleared
+     */
+    @Test
+    public void statementCacheHits() throws Exception {
+        ConnectionPool pool = cachingPool(4);
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertEquals(1, selectOne(connection, "SELECT ?", 1));
+        }
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertEquals(2, selectOne(connection, "SELECT ?", 2));
+        }
+        Assert.assertEquals(1, pool.getStats().statementCacheMisses);
+        Assert.assertEquals(1, pool.getStats().statementCacheHits);
+        Assert.assertEquals(1, pool.getStats().createdCount);
+    }
+
+    /**
+     * Prepare three different statements on a connection whose cache holds two
+     *
+     * Expected Result:
+     *  The least recently used statement is evicted, so preparing it again is a miss while the others still hit
+     */
+    @Test
+    public void statementCacheEvictsLeastRecentlyUsed() throws Exception {
+        ConnectionPool pool = cachingPool(2);
+        try (Connection connection = pool.getConnection()) {
+            selectOne(connection, "SELECT ?", 1);
+            selectOne(connection, "SELECT ? + 1", 1);
+            selectOne(connection, "SELECT ?", 1);
+            selectOne(connection, "SELECT ? + 2", 1);
+        }
+        Assert.assertEquals(1, pool.getStats().statementCacheEvictions);
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertEquals(2, selectOne(connection, "SELECT ?", 2));
+            Assert.assertEquals(4, selectOne(connection, "SELECT ? + 2", 2));
+            Assert.assertEquals(3, selectOne(connection, "SELECT ? + 1", 2));
+        }
+        Assert.assertEquals(4, pool.getStats().statementCacheMisses);
+        Assert.assertEquals(3, pool.getStats().statementCacheHits);
+    }
+
+    /**
+     * Prepare the same SQL twice while the first statement is still open, then return the connection
+     *
+     * Expected Result:
+     *  The statements keep separate parameters, the second reports the pooled connection as its own, and it is closed
+     *  with the lease
+     */
+    @Test
+    public void sameSqlPreparedTwice() throws Exception {
+        ConnectionPool pool = cachingPool(4);
+        Connection connection = pool.getConnection();
+        PreparedStatement first = connection.prepareStatement("SELECT ?");
+        PreparedStatement second = connection.prepareStatement("SELECT ?");
+        first.setInt(1, 1);
+        second.setInt(1, 2);
+        try (ResultSet rs = first.executeQuery()) {
+            rs.next();
+            Assert.assertEquals(1, rs.getInt(1));
+        }
+        try (ResultSet rs = second.executeQuery()) {
+            rs.next();
+            Assert.assertEquals(2, rs.getInt(1));
+        }
+        Assert.assertSame(connection, first.getConnection());
+        Assert.assertSame(connection, second.getConnection());
+        Assert.assertEquals(2, pool.getStats().statementCacheMisses);
+
+        connection.close();
+        Assert.assertTrue(second.isClosed());
+        try (Connection again = pool.getConnection()) {
+            Assert.assertEquals(3, selectOne(again, "SELECT ?", 3));
+        }
+        Assert.assertEquals(1, pool.getStats().statementCacheHits);
+    }
+
+    /**
+     * Change the isolation level and read-only flag of a borrowed connection, return it and borrow it again
+     *
+     * Expected Result:
+     *  The next borrower gets the same physical connection with the isolation level and read-only flag it was opened
+     *  with
+     */
+    @Test
+    public void sessionSettingsAreResetOnReturn() throws Exception {
+        ConnectionPool pool = pool(1, 1000, 0);
+        int isolation;
+        boolean readOnly;
+        try (Connection connection = pool.getConnection()) {
+            isolation = connection.getTransactionIsolation();
+            readOnly = connection.isReadOnly();
+            Assert.assertNotEquals(Connection.TRANSACTION_SERIALIZABLE, isolation);
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            connection.setReadOnly(!readOnly);
+            Assert.assertEquals(Connection.TRANSACTION_SERIALIZABLE, connection.getTransactionIsolation());
+        }
+        try (Connection connection = pool.getConnection()) {
+            Assert.assertEquals(isolation, connection.getTransactionIsolation());
+            Assert.assertEquals(readOnly, connection.isReadOnly());
+        }
+        Assert.assertEquals(1, pool.getStats().createdCount);
+    }
+}
@@ -3,6 +3,11 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -148,5 +153,52 @@ public class CreateMessageTest {
         Assert.assertEquals("", response.body().toString());
     }
 
-
+    /**
+     * Sending the same message, with the same posted_by, message_text and time_posted_epoch, to POST
+     * localhost:8080/messages twice one after the other and then three times at once, so the last three can be
+     * written in one batch
+     *
+     * Expected Response:
+     *  Status Code: 200 for each, and each response body is the message with its own message_id; GET
+     *  localhost:8080/messages/{message_id} returns the message for every one of those ids
+     */
+    @Test
+    public void createDuplicateMessagesGetDistinctIds() throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{"+
+                        "\"posted_by\":1, " +
+                        "\"message_text\": \"same message\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        List<HttpResponse<String>> responses = new ArrayList<>();
+        responses.add(webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()));
+        responses.add(webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString()));
+        List<CompletableFuture<HttpResponse<String>>> concurrent = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            concurrent.add(webClient.sendAsync(postMessageRequest, HttpResponse.BodyHandlers.ofString()));
+        for (CompletableFuture<HttpResponse<String>> response : concurrent)
+            responses.add(response.join());
+
+        Set<Integer> ids = new HashSet<>();
+        for (HttpResponse<String> response : responses) {
+            Assert.assertEquals(200, response.statusCode());
+            Message actualResult = objectMapper.readValue(response.body(), Message.class);
+            Assert.assertEquals(new Message(actualResult.getMessage_id(), 1, "same message", 1669947792),
+                    actualResult);
+            ids.add(actualResult.getMessage_id());
+        }
+        Assert.assertEquals(Set.of(2, 3, 4, 5, 6), ids);
+
+        for (int id : ids) {
+            HttpRequest getMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages/" + id))
+                    .build();
+            HttpResponse<String> response = webClient.send(getMessageRequest, HttpResponse.BodyHandlers.ofString());
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertEquals(new Message(id, 1, "same message", 1669947792),
+                    objectMapper.readValue(response.body(), Message.class));
+        }
+    }
 }
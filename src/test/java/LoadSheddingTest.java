@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.DatabaseExecutor;
+import Util.PasswordHashExecutor;
+import io.javalin.Javalin;
+
+public class LoadSheddingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+    /**
+     * Released after every test, so the tasks a test used to fill an executor finish
+     */
+    CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        app.stop();
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(30, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submit work until the executor rejects it. Idle threads only take their first tasks once they are scheduled,
+     * which frees room in the queue again, so keep topping it up until a round after a pause finds it still full.
+     */
+    private static void saturate(Runnable submit) throws InterruptedException {
+        int added;
+        do {
+            added = 0;
+            try {
+                while (true) {
+                    submit.run();
+                    added++;
+                }
+            }
+            catch (RejectedExecutionException expected) {
+                Thread.sleep(50);
+            }
+        } while (added > 0);
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void assertShed(HttpResponse<String> response) {
+        Assert.assertEquals(503, response.statusCode());
+        Assert.assertEquals(String.valueOf(DatabaseExecutor.RETRY_AFTER_SECONDS),
+                response.headers().firstValue("Retry-After").orElse(null));
+        Assert.assertEquals("", response.body());
+    }
+
+    /**
+     * Occupy every DatabaseExecutor thread and fill its queue, then send an http request to GET localhost:8080/messages
+     *
+     * Expected Response:
+     *  Status Code: 503 with a Retry-After header, and 200 again once the executor has drained
+     */
+    @Test
+    public void saturatedDatabaseExecutorSheds() throws IOException, InterruptedException {
+        saturate(() -> DatabaseExecutor.execute(this::awaitRelease));
+        Assert.assertEquals(DatabaseExecutor.getQueueSize(), DatabaseExecutor.getQueueDepth());
+
+        long rejected = DatabaseExecutor.getRejectedCount();
+        assertShed(get("/messages"));
+        Assert.assertEquals(rejected + 1, DatabaseExecutor.getRejectedCount());
+
+        release.countDown();
+        for (int i = 0; i < 100 && DatabaseExecutor.getQueueDepth() > 0; i++)
+            Thread.sleep(10);
+        Assert.assertEquals(200, get("/messages").statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?stream=true when no streamed listing may run
+     *
+     * Expected Response:
+     *  Status Code: 503 with a Retry-After header, while the same listing without streaming still succeeds
+     */
+    @Test
+    public void streamsOverLimitAreShed() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("socialmedia.stream.maxConcurrent", "0");
+        try {
+            socialMediaController = new SocialMediaController();
+        }
+        finally {
+            System.clearProperty("socialmedia.stream.maxConcurrent");
+        }
+        app = socialMediaController.startAPI();
+        app.start(8080);
+
+        assertShed(get("/messages?stream=true"));
+        assertShed(get("/accounts/1/messages?stream=true"));
+        Assert.assertEquals(200, get("/messages").statusCode());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Occupy every PasswordHashExecutor thread and fill its queue, then send http requests to POST
+     * localhost:8080/register and POST localhost:8080/login
+     *
+     * Expected Response:
+     *  Status Code: 503 with a Retry-After header for both, rather than 500 or a request that hangs
+     */
+    @Test
+    public void saturatedPasswordHashExecutorSheds() throws IOException, InterruptedException {
+        saturate(() -> PasswordHashExecutor.supply(() -> {
+            awaitRelease();
+            return null;
+        }));
+        Assert.assertEquals(PasswordHashExecutor.getQueueSize(), PasswordHashExecutor.getQueueDepth());
+
+        assertShed(post("/register", "{\"username\": \"user\", \"password\": \"password\"}"));
+        assertShed(post("/login", "{\"username\": \"testuser1\", \"password\": \"password\"}"));
+    }
+
+    /**
+     * Borrow every free pooled database connection, then send an http request to GET localhost:8080/messages/100,
+     * which is not cached and has to be read from the database
+     *
+     * Expected Response:
+     *  Status Code: 503 with a Retry-After header once the connection pool's acquire timeout has passed, rather than
+     *  500
+     */
+    @Test
+    public void exhaustedConnectionPoolSheds() throws Exception {
+        List<Connection> held = new ArrayList<>();
+        try {
+            // count the pool's own numbers, since a connection an earlier test never closed is still in use
+            while (ConnectionUtil.getPoolStats().active < ConnectionUtil.getPoolStats().maxSize)
+                held.add(ConnectionUtil.getConnection());
+            assertShed(get("/messages/100"));
+        }
+        finally {
+            for (Connection connection : held)
+                connection.close();
+        }
+        Assert.assertEquals(200, get("/messages/100").statusCode());
+    }
+}
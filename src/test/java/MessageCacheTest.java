@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.AccountDAO;
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageCache;
+import Service.MessageService;
+import Util.ConnectionUtil;
+
+public class MessageCacheTest {
+    /**
+     * Budget for about ten short messages
+     */
+    private static final long MAX_BYTES = 10 * (120 + 2 * "message 100".length());
+
+    private static Message message(int id) {
+        return new Message(id, 1, "message " + (100 + id % 900), 1669947792);
+    }
+
+    /**
+     * Read ten messages often enough to make them hot, then read many other messages once each
+     *
+     * Expected Result:
+     *  The one-off reads are not admitted, so the hot messages are still served from the cache
+     */
+    @Test
+    public void coldReadsDoNotFlushHotSet() {
+        MessageCache cache = new MessageCache(MAX_BYTES);
+        AtomicInteger loads = new AtomicInteger();
+        for (int round = 0; round < 5; round++)
+            for (int id = 1; id <= 10; id++)
+                cache.get(id, i -> { loads.incrementAndGet(); return message(i); });
+        Assert.assertEquals(10, loads.get());
+
+        for (int id = 11; id <= 200; id++)
+            cache.get(id, MessageCacheTest::message);
+        loads.set(0);
+        for (int id = 1; id <= 10; id++)
+            cache.get(id, i -> { loads.incrementAndGet(); return message(i); });
+
+        Assert.assertEquals(0, loads.get());
+        Assert.assertTrue(cache.getStats().rejections > 0);
+        Assert.assertTrue(cache.getStats().bytes <= MAX_BYTES);
+    }
+
+    /**
+     * Invalidate a message while it is being loaded
+     *
+     * Expected Result:
+     *  The stale load is not cached, so the next read loads the message again
+     */
+    @Test
+    public void invalidationDuringLoadIsNotOverwritten() {
+        MessageCache cache = new MessageCache(MAX_BYTES);
+        cache.get(1, id -> {
+            cache.invalidate(1);
+            return message(id);
+        });
+        AtomicInteger loads = new AtomicInteger();
+        cache.get(1, id -> { loads.incrementAndGet(); return message(id); });
+
+        Assert.assertEquals(1, loads.get());
+    }
+
+    /**
+     * Read, load and invalidate messages from several threads at once
+     *
+     * Expected Result:
+     *  Every read returns the requested message and the cache stays within its budget, with its size accounted for
+     */
+    @Test
+    public void concurrentUseStaysWithinBudget() throws Exception {
+        MessageCache cache = new MessageCache(MAX_BYTES);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger wrong = new AtomicInteger();
+        for (int thread = 0; thread < 4; thread++) {
+            int seed = thread;
+            executor.execute(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    int id = 1 + (i * 31 + seed * 7) % (i % 3 == 0 ? 40 : 12);
+                    if (i % 97 == 0)
+                        cache.invalidate(id);
+                    else if (cache.get(id, MessageCacheTest::message).getMessage_id() != id)
+                        wrong.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        MessageCache.CacheStats stats = cache.getStats();
+        Assert.assertEquals(0, wrong.get());
+        Assert.assertTrue(stats.bytes <= MAX_BYTES);
+        Assert.assertEquals(stats.size * (120 + 2L * "message 100".length()), stats.bytes);
+    }
+
+    /**
+     * Runs a change to each new message right after its insert has committed, before the service's continuation has
+     * put it in the caches and the search index
+     */
+    private static class ChangeAfterInsertDAO extends MessageDAO {
+        volatile IntConsumer afterInsert;
+
+        @Override
+        public Message newMessage(Message message) {
+            Message newMessage = super.newMessage(message);
+            if (newMessage != null)
+                afterInsert.accept(newMessage.getMessage_id());
+            return newMessage;
+        }
+    }
+
+    private static List<Message> search(MessageService messageService, String query) {
+        return messageService.searchMessages(query, null, 10).getItems();
+    }
+
+    /**
+     * Create a message and delete it after its insert commits but before the creation's continuation runs
+     *
+     * Expected Result:
+     *  The deleted message is not put back in the message cache, the loaded timeline, the recent messages or the
+     *  search index
+     */
+    @Test
+    public void deleteBeforeCreateContinuationIsNotUndone() {
+        ConnectionUtil.resetTestDatabase();
+        ChangeAfterInsertDAO messageDAO = new ChangeAfterInsertDAO();
+        MessageService messageService = new MessageService(messageDAO, new AccountDAO());
+        Assert.assertEquals(1, messageService.getAllMessagesByUserId(1).size());
+        messageDAO.afterInsert = messageService::deleteMessageById;
+
+        Message created = messageService.createNewMessage(new Message(1, "short lived", 1669947800));
+
+        Assert.assertEquals(2, created.getMessage_id());
+        Assert.assertNull(messageService.getMessageById(2));
+        Assert.assertEquals(List.of(1), ids(messageService.getAllMessagesByUserId(1)));
+        Assert.assertEquals(List.of(1), ids(messageService.getMessagesByTime(null, null, null, null, 10).getItems()));
+        Assert.assertEquals(List.of(), search(messageService, "short lived"));
+    }
+
+    /**
+     * Create a message and change its text after its insert commits but before the creation's continuation runs
+     *
+     * Expected Result:
+     *  The message cache, the loaded timeline, the recent messages and the search index hold the changed text, not
+     *  the text it was created with
+     */
+    @Test
+    public void updateBeforeCreateContinuationIsNotUndone() {
+        ConnectionUtil.resetTestDatabase();
+        ChangeAfterInsertDAO messageDAO = new ChangeAfterInsertDAO();
+        MessageService messageService = new MessageService(messageDAO, new AccountDAO());
+        Assert.assertEquals(1, messageService.getAllMessagesByUserId(1).size());
+        messageDAO.afterInsert = id -> messageService.updateMessageById(id, "edited text");
+
+        messageService.createNewMessage(new Message(1, "original text", 1669947800));
+
+        Message edited = new Message(2, 1, "edited text", 1669947800);
+        Assert.assertEquals(edited, messageService.getMessageById(2));
+        Assert.assertEquals(edited, messageService.getAllMessagesByUserId(1).get(1));
+        Assert.assertEquals(edited, messageService.getMessagesByTime(null, null, null, null, 10).getItems().get(1));
+        Assert.assertEquals(List.of(edited), search(messageService, "edited"));
+        Assert.assertEquals(List.of(), search(messageService, "original"));
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : messages)
+            ids.add(message.getMessage_id());
+        return ids;
+    }
+}
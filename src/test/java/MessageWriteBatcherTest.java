@@ -0,0 +1,120 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.MessageDAO;
+import Model.Message;
+import Service.MessageWriteBatcher;
+
+public class MessageWriteBatcherTest {
+    /**
+     * A DAO that throws an Error from its first insert and then assigns increasing ids, without a database.
+     */
+    private static class FailingOnceDAO extends MessageDAO {
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        final AtomicInteger ids = new AtomicInteger();
+
+        @Override
+        public Message newMessage(Message message) {
+            if (fail.getAndSet(false))
+                throw new LinkageError("forced failure");
+            return new Message(ids.incrementAndGet(), message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+        }
+    }
+
+    /**
+     * Submit a message whose write throws an Error, then submit another one
+     *
+     * Expected Result:
+     *  The first future fails with the Error and the second message is written by a new writer thread
+     */
+    @Test
+    public void writerRecoversFromError() throws Exception {
+        MessageWriteBatcher batcher = new MessageWriteBatcher(new FailingOnceDAO(), 16, 0, Runnable::run);
+
+        CompletableFuture<Message> failed = batcher.submit(new Message(1, "first", 1669947792));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            Assert.fail("the forced failure should fail the first write");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof LinkageError);
+        }
+
+        Message saved = batcher.submit(new Message(1, "second", 1669947792)).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(new Message(1, 1, "second", 1669947792), saved);
+    }
+
+    /**
+     * A DAO that holds its first insert until released, and assigns increasing ids without a database.
+     */
+    private static class GatedDAO extends MessageDAO {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger ids = new AtomicInteger();
+
+        @Override
+        public Message newMessage(Message message) {
+            if (ids.get() == 0) {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new Message(ids.incrementAndGet(), message.getPosted_by(), message.getMessage_text(),
+                    message.getTime_posted_epoch());
+        }
+    }
+
+    /**
+     * Submit a message whose caller's follow-up work blocks, then submit another one
+     *
+     * Expected Result:
+     *  The follow-up work runs on the completions executor, and the second message is written while it is still blocked
+     */
+    @Test
+    public void slowContinuationDoesNotBlockWriter() throws Exception {
+        GatedDAO dao = new GatedDAO();
+        ExecutorService completions = Executors.newFixedThreadPool(2);
+        try {
+            MessageWriteBatcher batcher = new MessageWriteBatcher(dao, 16, 0, completions);
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicReference<String> continuationThread = new AtomicReference<>();
+            CompletableFuture<Void> slow = batcher.submit(new Message(1, "first", 1669947792)).thenRun(() -> {
+                continuationThread.set(Thread.currentThread().getName());
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            dao.gate.countDown();
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Message saved = batcher.submit(new Message(1, "second", 1669947792)).get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(new Message(2, 1, "second", 1669947792), saved);
+            Assert.assertFalse(slow.isDone());
+            Assert.assertNotEquals("message-write-batcher", continuationThread.get());
+
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+        }
+        finally {
+            completions.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/metrics before any other request
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: Prometheus text with a latency histogram for every route, including ones not yet called
+     */
+    @Test
+    public void metricsListEveryRoute() throws IOException, InterruptedException {
+        HttpResponse<String> response = get("/metrics");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        String body = response.body();
+        Assert.assertTrue(body.contains("# TYPE http_request_duration_seconds histogram"));
+        Assert.assertTrue(body.contains(
+                "http_request_duration_seconds_count{method=\"POST\",route=\"/register\"} 0"));
+        Assert.assertTrue(body.contains(
+                "http_request_duration_seconds_count{method=\"PATCH\",route=\"/messages/{message_id}\"} 0"));
+        Assert.assertTrue(body.contains("# TYPE db_pool_acquire_wait_seconds histogram"));
+    }
+
+    /**
+     * Sending requests to GET localhost:8080/messages/1, GET localhost:8080/messages/1 and GET localhost:8080/nowhere,
+     * then to GET localhost:8080/metrics
+     *
+     * Expected Response:
+     *  Response Body: status counts for the matched route, the unmatched request, and the DAO query behind the first
+     *  read of message 1
+     */
+    @Test
+    public void metricsCountRequestsAndQueries() throws IOException, InterruptedException {
+        get("/messages/1");
+        get("/messages/1");
+        get("/nowhere");
+
+        String body = get("/metrics").body();
+        Assert.assertTrue(body.contains(
+                "http_requests_total{method=\"GET\",route=\"/messages/{message_id}\",status=\"200\"} 2"));
+        Assert.assertTrue(body.contains(
+                "http_request_duration_seconds_count{method=\"GET\",route=\"/messages/{message_id}\"} 2"));
+        Assert.assertTrue(body.contains("http_requests_total{method=\"GET\",route=\"unmatched\",status=\"404\"} 1"));
+        Assert.assertTrue(body.matches(
+                "(?s).*db_query_duration_seconds_count\\{dao=\"MessageDAO\",method=\"getMessageById\"} [1-9].*"));
+        Assert.assertTrue(body.contains("http_requests_in_flight{method=\"GET\"} 1"));
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class PasswordHashingTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> post(String path, String username, String password)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", " +
+                        "\"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String storedPassword(String username) throws SQLException {
+        try (Connection connection = ConnectionUtil.getConnection()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT password FROM account WHERE username = ?;");
+            preparedStatement.setString(1, username);
+            ResultSet rs = preparedStatement.executeQuery();
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/register, then to POST localhost:8080/login with the right and
+     * a wrong password
+     *
+     * Expected Response:
+     *  Status Code: 200 for the right password and 401 for the wrong one; the database holds a salted hash, not the
+     *  password
+     */
+    @Test
+    public void registeredPasswordIsHashed() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals(200, post("/register", "user", "password").statusCode());
+
+        String stored = storedPassword("user");
+        Assert.assertTrue(stored.startsWith("pbkdf2-sha256$"));
+        Assert.assertFalse(stored.contains("password"));
+        Assert.assertEquals(200, post("/login", "user", "password").statusCode());
+        Assert.assertEquals(401, post("/login", "user", "passworD").statusCode());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/login for testuser1, whose password is stored in plain text
+     *
+     * Expected Response:
+     *  Status Code: 200, and the stored password is replaced with a hash shortly after
+     */
+    @Test
+    public void legacyPasswordIsUpgradedOnLogin() throws IOException, InterruptedException, SQLException {
+        Assert.assertEquals("password", storedPassword("testuser1"));
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+
+        for (int i = 0; i < 50 && "password".equals(storedPassword("testuser1")); i++)
+            Thread.sleep(100);
+        Assert.assertTrue(storedPassword("testuser1").startsWith("pbkdf2-sha256$"));
+        Assert.assertEquals(200, post("/login", "testuser1", "password").statusCode());
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class RateLimitTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient for interacting
+     * locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> login(String username, String password) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"" + username + "\", " +
+                        "\"password\": \"" + password + "\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending six http requests to POST localhost:8080/login for testuser1 with a wrong password, then one for another
+     * username
+     *
+     * Expected Response:
+     *  Status Code: 401 for the first five, then 429 with a Retry-After header once the username's burst is used up;
+     *  the other username is still answered normally
+     */
+    @Test
+    public void loginRateLimitedByUsername() throws IOException, InterruptedException {
+        for (int i = 0; i < 5; i++)
+            Assert.assertEquals(401, login("testuser1", "wrong").statusCode());
+
+        HttpResponse<String> limited = login("testuser1", "password");
+        Assert.assertEquals(429, limited.statusCode());
+        Assert.assertTrue(limited.headers().firstValue("Retry-After").isPresent());
+        Assert.assertEquals("", limited.body());
+        Assert.assertEquals(401, login("someoneelse", "wrong").statusCode());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String batch(int size) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"posted_by\":1, \"message_text\": \"batched ").append(i)
+                    .append("\", \"time_posted_epoch\": 1669947792}");
+        }
+        return body.append("]").toString();
+    }
+
+    /**
+     * Sending 120 http requests to POST localhost:8080/messages without a session token, all naming account 1
+     *
+     * Expected Response:
+     *  Status Code: 200 for all of them; posted_by is not verified, so only the IP limit (burst 200) applies and the
+     *  account limit (burst 100) of account 1 is left alone
+     */
+    @Test
+    public void unverifiedPostsOnlyCountAgainstIp() throws IOException, InterruptedException {
+        for (int i = 0; i < 120; i++) {
+            Assert.assertEquals(200, post("/messages", "{\"posted_by\":1, \"message_text\": \"post " + i + "\", " +
+                    "\"time_posted_epoch\": 1669947792}").statusCode());
+        }
+    }
+
+    /**
+     * Sending two http requests to POST localhost:8080/messages/batch with 150 messages each
+     *
+     * Expected Response:
+     *  Status Code: 200 for the first; 429 for the second, since each message takes a token from the IP's burst of 200
+     */
+    @Test
+    public void batchChargesEveryMessage() throws IOException, InterruptedException {
+        Assert.assertEquals(200, post("/messages/batch", batch(150)).statusCode());
+        HttpResponse<String> limited = post("/messages/batch", batch(150));
+        Assert.assertEquals(429, limited.statusCode());
+        Assert.assertTrue(limited.headers().firstValue("Retry-After").isPresent());
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Util.RateLimiter;
+
+public class RateLimiterTest {
+    /**
+     * @return 2^blocks distinct keys with the same String.hashCode, built from "Aa" and "BB", which collide
+     */
+    private static List<String> collidingKeys(int blocks) {
+        List<String> keys = new ArrayList<>();
+        for (int bits = 0; bits < 1 << blocks; bits++) {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < blocks; i++)
+                key.append((bits >> i & 1) == 0 ? "Aa" : "BB");
+            keys.add(key.toString());
+        }
+        return keys;
+    }
+
+    /**
+     * Spray 1024 new keys that all hash alike at a limiter that tracks at most 16 keys per stripe, one request each,
+     * then make a request for each of 32 other new keys
+     *
+     * Expected Result:
+     *  The spray gets no more than a burst through its overflow bucket, the other keys are all allowed (one that landed
+     *  in the sprayed stripe would share the spray's overflow bucket only one time in 64), memory stays bounded and the
+     *  full stripe is not swept once per new key
+     */
+    @Test
+    public void keySprayDoesNotStarveOtherKeys() {
+        RateLimiter limiter = new RateLimiter("test", 0.01, 3, 16 * 16);
+        int sprayAllowed = 0;
+        for (String key : collidingKeys(10)) {
+            if (limiter.tryAcquire(key) == 0)
+                sprayAllowed++;
+        }
+        // 16 keys are tracked in the stripe, the rest share an overflow bucket
+        Assert.assertEquals(16 + 3, sprayAllowed);
+
+        for (int i = 0; i < 32; i++)
+            Assert.assertEquals("user" + i, 0, limiter.tryAcquire("user" + i));
+        Assert.assertEquals(16 + 32, limiter.getKeyCount(), 2);
+        Assert.assertEquals(0, limiter.getSweepCount());
+    }
+
+    /**
+     * Fill a limiter whose buckets refill within a millisecond, wait for them to refill, then make a request for a new
+     * key
+     *
+     * Expected Result:
+     *  The full stripe is swept once and the new key is tracked in place of the idle ones
+     */
+    @Test
+    public void fullStripeIsSweptAfterRefill() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter("test", 1000, 1, 16);
+        List<String> keys = collidingKeys(2);
+        Assert.assertEquals(0, limiter.tryAcquire(keys.get(0)));
+        Assert.assertEquals(0, limiter.tryAcquire(keys.get(1)));
+        Assert.assertEquals(1, limiter.getKeyCount());
+
+        Thread.sleep(5);
+        Assert.assertEquals(0, limiter.tryAcquire(keys.get(2)));
+        Assert.assertEquals(1, limiter.getSweepCount());
+        Assert.assertEquals(1, limiter.getKeyCount());
+    }
+}
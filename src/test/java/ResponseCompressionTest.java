@@ -0,0 +1,151 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ResponseCompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, create a new webClient for interacting locally
+     * on the web, and post enough messages for account 1 that its listing is worth compressing.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException, IOException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 50; i++) {
+            if (i > 0)
+                batch.append(',');
+            batch.append("{\"posted_by\":1, \"message_text\": \"message number ").append(i)
+                    .append("\", \"time_posted_epoch\": 1669947792}");
+        }
+        HttpRequest postBatchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch.append(']').toString()))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postBatchRequest, HttpResponse.BodyHandlers.discarding());
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path));
+        if (acceptEncoding != null)
+            request.header("Accept-Encoding", acceptEncoding);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private String gunzip(byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages with and without Accept-Encoding: gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: gzip-compressed when accepted, and the same JSON once decompressed
+     */
+    @Test
+    public void getAllMessagesCompressed() throws IOException, InterruptedException {
+        HttpResponse<byte[]> plain = get("/messages", null);
+        HttpResponse<byte[]> compressed = get("/messages", "br;q=1.0, gzip;q=0.8");
+
+        Assert.assertEquals(200, compressed.statusCode());
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals("gzip", compressed.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertTrue(compressed.body().length < plain.body().length);
+        Assert.assertEquals(new String(plain.body(), StandardCharsets.UTF_8), gunzip(compressed.body()));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/1 with Accept-Encoding: gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: uncompressed, because a single message is below the minimum size
+     */
+    @Test
+    public void getSmallMessageUncompressed() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = get("/messages/1", "gzip");
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertTrue(new String(response.body(), StandardCharsets.UTF_8).startsWith("{"));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages with Accept-Encoding: gzip twice, then to
+     * GET localhost:8080/metrics
+     *
+     * Expected Response:
+     *  Response Body: the same compressed bytes both times, the second served from the compressed body cache
+     */
+    @Test
+    public void getTimelineReusesCompressedBody() throws IOException, InterruptedException {
+        HttpResponse<byte[]> first = get("/accounts/1/messages", "gzip");
+        HttpResponse<byte[]> second = get("/accounts/1/messages", "gzip");
+
+        Assert.assertEquals("gzip", second.headers().firstValue("Content-Encoding").orElse(null));
+        Assert.assertArrayEquals(first.body(), second.body());
+        String metrics = new String(get("/metrics", null).body(), StandardCharsets.UTF_8);
+        Assert.assertTrue(metrics.contains("http_compression_cache_hits_total{encoding=\"gzip\"} 1"));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/1/messages with and without Accept-Encoding: gzip, then
+     * again with If-None-Match set to each ETag
+     *
+     * Expected Response:
+     *  The gzip response carries the ETag with -gzip appended, and either tag gets Status Code 304
+     */
+    @Test
+    public void compressedResponseHasItsOwnEtag() throws IOException, InterruptedException {
+        String plain = get("/accounts/1/messages", null).headers().firstValue("ETag").orElse(null);
+        String compressed = get("/accounts/1/messages", "gzip").headers().firstValue("ETag").orElse(null);
+
+        Assert.assertNotNull(plain);
+        Assert.assertEquals(plain.substring(0, plain.length() - 1) + "-gzip\"", compressed);
+        for (String etag : new String[]{plain, compressed}) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/accounts/1/messages"))
+                    .header("Accept-Encoding", "gzip")
+                    .header("If-None-Match", etag)
+                    .build();
+            HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            Assert.assertEquals(304, response.statusCode());
+            Assert.assertEquals(etag, response.headers().firstValue("ETag").orElse(null));
+        }
+    }
+}
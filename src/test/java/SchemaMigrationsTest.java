@@ -0,0 +1,104 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.SchemaMigrations;
+
+public class SchemaMigrationsTest {
+    Connection connection;
+
+    /**
+     * Before every test, open a connection to a new, empty in-memory database.
+     */
+    @Before
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:migrations" + System.nanoTime(), "sa", "sa");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    private List<String> query(String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery(sql)) {
+            while (rs.next())
+                rows.add(rs.getString(1));
+            return rows;
+        }
+    }
+
+    private List<String> appliedMigrations() throws SQLException {
+        return query("SELECT version || ' ' || description FROM schema_migrations ORDER BY version;");
+    }
+
+    private List<String> messageIndexes() throws SQLException {
+        return query("SELECT index_name FROM information_schema.indexes " +
+                "WHERE table_name = 'MESSAGE' AND index_name LIKE 'MESSAGE_%_IDX' ORDER BY index_name;");
+    }
+
+    /**
+     * Migrate a fresh database
+     *
+     * Expected Result:
+     *  Every migration is applied and recorded in version order, and the message table has the indexes they create
+     */
+    @Test
+    public void freshDatabaseAppliesMigrationsInOrder() throws SQLException {
+        Assert.assertEquals(3, SchemaMigrations.migrate(connection));
+
+        Assert.assertEquals(List.of("1 baseline", "2 message_posted_by_index", "3 message_time_posted_keyset_indexes"),
+                appliedMigrations());
+        Assert.assertEquals(List.of("MESSAGE_POSTED_BY_MESSAGE_ID_IDX", "MESSAGE_POSTED_BY_TIME_POSTED_EPOCH_IDX",
+                "MESSAGE_TIME_POSTED_EPOCH_MESSAGE_ID_IDX"), messageIndexes());
+    }
+
+    /**
+     * Migrate a database twice
+     *
+     * Expected Result:
+     *  The second run verifies the applied migrations and applies nothing
+     */
+    @Test
+    public void appliedMigrationsAreSkipped() throws SQLException {
+        SchemaMigrations.migrate(connection);
+        List<String> applied = appliedMigrations();
+
+        Assert.assertEquals(0, SchemaMigrations.migrate(connection));
+        Assert.assertEquals(applied, appliedMigrations());
+    }
+
+    /**
+     * Migrate a database, change the recorded checksum of V2 and forget V3, then migrate again
+     *
+     * Expected Result:
+     *  Startup is refused with an IllegalStateException naming V2, and V3 is not applied again
+     */
+    @Test
+    public void changedMigrationIsRefused() throws SQLException {
+        SchemaMigrations.migrate(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("UPDATE schema_migrations SET checksum = 'tampered' WHERE version = 2;");
+            statement.executeUpdate("DELETE FROM schema_migrations WHERE version = 3;");
+        }
+
+        try {
+            SchemaMigrations.migrate(connection);
+            Assert.fail("expected the changed migration to be refused");
+        }
+        catch (IllegalStateException expected) {
+            Assert.assertTrue(expected.getMessage().contains("V2__message_posted_by_index.sql"));
+        }
+        Assert.assertEquals(2, appliedMigrations().size());
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Service.SearchIndex;
+
+public class SearchIndexTest {
+    private static List<Integer> search(SearchIndex index, String query) {
+        List<Integer> ids = new ArrayList<>();
+        SearchIndex.IdIterator iterator = index.search(SearchIndex.tokenize(query), 0);
+        for (int id = iterator.next(); id >= 0; id = iterator.next())
+            ids.add(id);
+        return ids;
+    }
+
+    private static void awaitCompaction(SearchIndex index, long compactions) throws InterruptedException {
+        for (int i = 0; i < 500 && index.getCompactionCount() < compactions; i++)
+            Thread.sleep(10);
+    }
+
+    /**
+     * Index 1000 messages, remove the even ones, edit some of the odd ones and add a few back out of order
+     *
+     * Expected Result:
+     *  Searches skip removed ids before and after the background compaction, and include the ids added back
+     */
+    @Test
+    public void removalsAreSkippedAndCompacted() throws Exception {
+        SearchIndex index = new SearchIndex();
+        for (int id = 1; id <= 1000; id++)
+            index.add(id, "common word" + id);
+        for (int id = 2; id <= 1000; id += 2)
+            index.remove(id, "common word" + id);
+        index.update(1, "common word1", "rare");
+        index.add(4, "common again");
+        index.add(3, "common");
+
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 3; id <= 1000; id += 2) {
+            expected.add(id);
+            if (id == 3)
+                expected.add(4);
+        }
+        Assert.assertEquals(expected, search(index, "common"));
+        Assert.assertEquals(List.of(1), search(index, "rare"));
+        Assert.assertEquals(List.of(4), search(index, "common again"));
+
+        awaitCompaction(index, 1);
+        Assert.assertTrue(index.getCompactionCount() >= 1);
+        Assert.assertEquals(expected, search(index, "common"));
+        Assert.assertEquals(List.of(4), search(index, "again"));
+    }
+
+    /**
+     * Index some messages and remove all of them
+     *
+     * Expected Result:
+     *  Nothing matches, and compaction drops the emptied terms
+     */
+    @Test
+    public void emptiedTermsAreDropped() throws Exception {
+        SearchIndex index = new SearchIndex();
+        for (int id = 1; id <= 20; id++)
+            index.add(id, "gone");
+        for (int id = 1; id <= 20; id++)
+            index.remove(id, "gone");
+        Assert.assertEquals(List.of(), search(index, "gone"));
+
+        for (int i = 0; i < 500 && index.getTermCount() > 0; i++)
+            Thread.sleep(10);
+        Assert.assertEquals(0, index.getTermCount());
+        Assert.assertEquals(0, index.getPostingsBytes());
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+import java.util.List;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int post(String text) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class).getMessage_id();
+    }
+
+    private List<Message> messages(HttpResponse<String> response) throws IOException {
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=Test+1, then with words that match nothing,
+     * then without any words
+     *
+     * Expected Response:
+     *  Status Code: 200 with the seeded message, 200 with an empty list, then 400
+     */
+    @Test
+    public void searchMatchesEveryWord() throws IOException, InterruptedException {
+        post("another message");
+
+        HttpResponse<String> response = get("/messages/search?q=Test+1");
+        Assert.assertEquals(200, response.statusCode());
+        List<Message> found = messages(response);
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792), found.get(0));
+
+        Assert.assertEquals(2, messages(get("/messages/search?q=message")).size());
+        Assert.assertEquals(List.of(), messages(get("/messages/search?q=test+another")));
+        Assert.assertEquals(400, get("/messages/search?q=%20!").statusCode());
+        Assert.assertEquals(400, get("/messages/search").statusCode());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=word&limit=2, then following X-Next-Cursor
+     *
+     * Expected Response:
+     *  Status Code: 200, the matching messages two at a time in ascending message_id order
+     */
+    @Test
+    public void searchIsPaginated() throws IOException, InterruptedException {
+        int first = post("word one");
+        post("other text");
+        int second = post("word two");
+        int third = post("word three");
+
+        HttpResponse<String> page = get("/messages/search?q=word&limit=2");
+        Assert.assertEquals(200, page.statusCode());
+        List<Message> items = messages(page);
+        Assert.assertEquals(2, items.size());
+        Assert.assertEquals(first, items.get(0).getMessage_id());
+        Assert.assertEquals(second, items.get(1).getMessage_id());
+        String cursor = page.headers().firstValue("X-Next-Cursor").orElse(null);
+        Assert.assertEquals(String.valueOf(second), cursor);
+
+        page = get("/messages/search?q=word&limit=2&after=" + cursor);
+        items = messages(page);
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals(third, items.get(0).getMessage_id());
+        Assert.assertFalse(page.headers().firstValue("X-Next-Cursor").isPresent());
+    }
+
+    /**
+     * Sending an http request to PATCH localhost:8080/messages/1 and DELETE localhost:8080/messages/{id}, then
+     * searching for the old and new words
+     *
+     * Expected Response:
+     *  Status Code: 200, results reflecting the update and the delete
+     */
+    @Test
+    public void searchFollowsUpdatesAndDeletes() throws IOException, InterruptedException {
+        int id = post("short lived");
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"updated text\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + id))
+                .DELETE()
+                .build();
+        Assert.assertEquals(200, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(List.of(), messages(get("/messages/search?q=test")));
+        Assert.assertEquals(List.of(), messages(get("/messages/search?q=lived")));
+        List<Message> found = messages(get("/messages/search?q=UPDATED"));
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(1, found.get(0).getMessage_id());
+    }
+}
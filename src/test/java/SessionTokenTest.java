@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SessionTokenTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private String login() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"testuser1\", \"password\": \"password\" }"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return response.headers().firstValue("X-Session-Token").orElse(null);
+    }
+
+    private HttpResponse<String> post(String path, String body, String token)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json");
+        if (token != null)
+            request.header("Authorization", "Bearer " + token);
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/login, then POST localhost:8080/messages with the returned token
+     * and no posted_by
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the new message, posted by the token's account
+     */
+    @Test
+    public void postMessageWithToken() throws IOException, InterruptedException {
+        String token = login();
+        Assert.assertNotNull(token);
+
+        HttpResponse<String> response = post("/messages",
+                "{\"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}", token);
+        Assert.assertEquals(200, response.statusCode());
+        Message actual = objectMapper.readValue(response.body(), Message.class);
+        Assert.assertEquals(new Message(2, 1, "hello message", 1669947792), actual);
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/messages with a token for another account's posted_by, with a
+     * tampered token, and with a token after POST localhost:8080/logout
+     *
+     * Expected Response:
+     *  Status Code: 403 for the other account, 401 for the tampered and the revoked token, 200 for the logout
+     */
+    @Test
+    public void rejectMismatchedTamperedAndRevokedTokens() throws IOException, InterruptedException {
+        String token = login();
+        String body = "{\"posted_by\":1, \"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}";
+
+        Assert.assertEquals(403, post("/messages", body.replace("\"posted_by\":1", "\"posted_by\":2"), token)
+                .statusCode());
+        String tampered = (token.charAt(0) == 'A' ? "B" : "A") + token.substring(1);
+        Assert.assertEquals(401, post("/messages", body, tampered).statusCode());
+
+        Assert.assertEquals(200, post("/logout", "", token).statusCode());
+        Assert.assertEquals(401, post("/messages", body, token).statusCode());
+        Assert.assertEquals(401, post("/logout", "", token).statusCode());
+    }
+
+    /**
+     * Sending http requests to POST localhost:8080/messages/batch with socialmedia.auth.required set: without a token,
+     * with a token and an item for another account, and with a token and items without posted_by
+     *
+     * Expected Response:
+     *  Status Code: 401, then 403, then 200 with every message posted by the token's account
+     */
+    @Test
+    public void batchChecksTokens() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("socialmedia.auth.required", "true");
+        try {
+            socialMediaController = new SocialMediaController();
+        }
+        finally {
+            System.clearProperty("socialmedia.auth.required");
+        }
+        app = socialMediaController.startAPI();
+        app.start(8080);
+        String token = login();
+        String item = "{\"message_text\": \"batched message\", \"time_posted_epoch\": 1669947792}";
+        String other = "{\"posted_by\":2, \"message_text\": \"batched message\", \"time_posted_epoch\": 1669947792}";
+
+        Assert.assertEquals(401, post("/messages/batch", "[" + item + "]", null).statusCode());
+        Assert.assertEquals(403, post("/messages/batch", "[" + item + "," + other + "]", token).statusCode());
+        HttpResponse<String> response = post("/messages/batch", "[" + item + "," + item + "]", token);
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(2, response.body().split("\"posted_by\":1").length - 1);
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class TimeRangeQueryTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private int post(String text, long timePostedEpoch) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"" + text + "\", " +
+                        "\"time_posted_epoch\": " + timePostedEpoch + "}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        return objectMapper.readValue(response.body(), Message.class).getMessage_id();
+    }
+
+    private List<Integer> ids(HttpResponse<String> response) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){}))
+            ids.add(message.getMessage_id());
+        return ids;
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages and GET localhost:8080/accounts/1/messages with since and
+     * until around messages posted out of time order
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the messages posted in the range, ordered by time_posted_epoch
+     */
+    @Test
+    public void listMessagesInRange() throws IOException, InterruptedException {
+        int later = post("later", 1669947900);
+        int earlier = post("earlier", 1669947800);
+        post("next hour", 1669951392);
+
+        HttpResponse<String> response = get("/messages?since=1669947800&until=1669951392");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(List.of(earlier, later), ids(response));
+        Assert.assertEquals(List.of(1, earlier, later), ids(get("/messages?until=1669951392")));
+        Assert.assertEquals(List.of(earlier, later),
+                ids(get("/accounts/1/messages?since=1669947800&until=1669951392")));
+        Assert.assertEquals(List.of(), ids(get("/accounts/2/messages?since=1669947800")));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?since=...&limit=1, then following X-Next-Since and
+     * X-Next-Cursor through messages posted at the same time
+     *
+     * Expected Response:
+     *  Status Code: 200, one message per page in (time_posted_epoch, message_id) order
+     */
+    @Test
+    public void pageThroughRange() throws IOException, InterruptedException {
+        int first = post("first", 1669947800);
+        int second = post("second", 1669947800);
+        int third = post("third", 1669947801);
+
+        List<Integer> seen = new ArrayList<>();
+        String query = "since=1669947800";
+        for (int page = 0; page < 3; page++) {
+            HttpResponse<String> response = get("/accounts/1/messages?limit=1&" + query);
+            Assert.assertEquals(200, response.statusCode());
+            seen.addAll(ids(response));
+            String since = response.headers().firstValue("X-Next-Since").orElse(null);
+            String cursor = response.headers().firstValue("X-Next-Cursor").orElse(null);
+            if (page < 2)
+                Assert.assertNotNull(since);
+            else Assert.assertNull(cursor);
+            query = "since=" + since + "&after=" + cursor;
+        }
+        Assert.assertEquals(List.of(first, second, third), seen);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages for the last hour, which is served from the recent
+     * segment, after posting messages from just now, two hours ago and in the future
+     *
+     * Expected Response:
+     *  Status Code: 200 with only the messages of the last hour; 400 for malformed parameters
+     */
+    @Test
+    public void listLastHour() throws IOException, InterruptedException {
+        long now = System.currentTimeMillis() / 1000;
+        post("old", now - 7200);
+        int recent = post("recent", now - 60);
+        int future = post("future", now + 60);
+
+        Assert.assertEquals(List.of(recent), ids(get("/messages?since=" + (now - 3600) + "&until=" + now)));
+        Assert.assertEquals(List.of(recent, future), ids(get("/messages?since=" + (now - 3600))));
+        Assert.assertEquals(400, get("/messages?since=yesterday").statusCode());
+        Assert.assertEquals(400, get("/messages?until=" + now + "&after=1").statusCode());
+        Assert.assertEquals(400, get("/messages?since=" + now + "&before=5").statusCode());
+    }
+}